@@ -1,13 +1,25 @@
+import org.greencheek.annotations.AllocationMeter;
 import org.greencheek.annotations.GCMonitor;
 import org.greencheek.annotations.HeapMonitor;
+import org.greencheek.annotations.LatencyHistogram;
+import org.greencheek.annotations.LatencyIntervalRecorder;
+import org.greencheek.annotations.LiveDashboard;
+import org.greencheek.annotations.LiveReaderStats;
+import org.greencheek.annotations.PendingAccessMonitor;
 import org.greencheek.annotations.domain.ClassWithAnnotations;
 import org.greencheek.annotations.service.AnnotationReader;
 import org.greencheek.annotations.service.BasicAnnotationReader;
 import org.greencheek.annotations.service.CachingAnnotationReader;
 import org.greencheek.annotations.service.CachingLinkedHashMapAnnotationReader;
+import org.greencheek.annotations.service.ClassValueAnnotationReader;
+import org.greencheek.annotations.service.StripedReadBufferAnnotationReader;
+import org.greencheek.annotations.service.WriteOrderedAnnotationReader;
+import org.greencheek.annotations.timeseries.TimeSeriesWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.CompilationMXBean;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
@@ -26,10 +38,25 @@ public class RunCachingTest {
     private static final CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
     private static ExecutorService threadPool = Executors.newFixedThreadPool(MAX_NO_THREADS);
     private static Logger log = LoggerFactory.getLogger(RunCachingTest.class);
-    private static final AnnotationReader cache = new CachingAnnotationReader();
-    private static final AnnotationReader linkedCache = new CachingLinkedHashMapAnnotationReader();
+    private static final CachingAnnotationReader cache = new CachingAnnotationReader();
+    private static final CachingLinkedHashMapAnnotationReader linkedCache = new CachingLinkedHashMapAnnotationReader();
     private static final AnnotationReader noncache = new BasicAnnotationReader();
+    private static final StripedReadBufferAnnotationReader stripedCache = new StripedReadBufferAnnotationReader();
+    private static final AnnotationReader classValueCache = new ClassValueAnnotationReader();
+    private static final AnnotationReader writeOrderedCache = new WriteOrderedAnnotationReader.Builder()
+            .expireAfterWrite(10, TimeUnit.SECONDS).build();
     private static final GCMonitor gcMonitor = new GCMonitor();
+    private static final LatencyIntervalRecorder latencyRecorder = new LatencyIntervalRecorder();
+
+    // per thread rate of the fixed rate runs, i.e. 8 threads * 100,000 ops/s
+    private static final int FIXED_RATE_OPERATIONS_PER_SECOND = 100000;
+
+    // -Dtimeseries.file=... streams the heap, gc and run samples to the file (see TimeSeriesTail); null otherwise
+    private static TimeSeriesWriter timeSeries;
+    // -Ddashboard=true redraws the heap, gc, ops/s and p99 of each reader at the top of the terminal; null otherwise
+    private static LiveDashboard dashboard;
+    // -Dpending.warning=... the pending accesses of a caching reader over which a warning is logged
+    private static final long pendingAccessWarning = Long.getLong("pending.warning",PendingAccessMonitor.DEFAULT_WARNING_THRESHOLD);
 
 
     private static void runThreadedExecution(int threads, int iterations, AnnotationReaderExecutor callable)
@@ -43,14 +70,30 @@ public class RunCachingTest {
         log.info("Jit compilation: {}",(endCompileTime-startCompileTime));
     }
 
-    public static void main(String[] args) throws ExecutionException, InterruptedException {
+    public static void main(String[] args) throws ExecutionException, InterruptedException, IOException {
+
+        String timeSeriesFile = System.getProperty("timeseries.file");
+        if(timeSeriesFile!=null) {
+            timeSeries = new TimeSeriesWriter(new File(timeSeriesFile));
+            GCMonitor.exportTo(timeSeries);
+        }
+        if(Boolean.getBoolean("dashboard")) {
+            dashboard = new LiveDashboard();
+        }
 
         int iterations = 1000000;
 
         AnnotationReaderExecutor cachingCallable = new AnnotationReaderExecutor("CacheBuilder",cache,iterations);//createCallables(NO_THREADS,iterations,cache);
         AnnotationReaderExecutor noncachingCallables = new AnnotationReaderExecutor("GetAnnotations",noncache,iterations);//createCallables(NO_THREADS,iterations,noncache);
         AnnotationReaderExecutor linkedCachingCallable = new AnnotationReaderExecutor("LinkedCacheBuilder",linkedCache,iterations);
+        AnnotationReaderExecutor stripedCachingCallable = new AnnotationReaderExecutor("StripedReadBuffer",stripedCache,iterations);
+        AnnotationReaderExecutor classValueCachingCallable = new AnnotationReaderExecutor("ClassValue",classValueCache,iterations);
+        AnnotationReaderExecutor writeOrderedCachingCallable = new AnnotationReaderExecutor("WriteOrdered",writeOrderedCache,iterations);
+
 
+        if(dashboard!=null) {
+            dashboard.start();
+        }
 
         log.info("Warmup");
         log.info("--------------");
@@ -84,6 +127,33 @@ public class RunCachingTest {
         endCompileTime = jit.getTotalCompilationTime();
         gcMonitor.report();
         log.info("Jit compilation: {}",(endCompileTime-startCompileTime));
+
+        gcMonitor.start();
+        startCompileTime = jit.getTotalCompilationTime();
+        RunCachingTest.executeTestWithThreads(1,iterations,stripedCachingCallable);
+        RunCachingTest.executeTestWithThreads(10,iterations,stripedCachingCallable);
+        RunCachingTest.executeTestWithThreads(20,iterations,stripedCachingCallable);
+        endCompileTime = jit.getTotalCompilationTime();
+        gcMonitor.report();
+        log.info("Jit compilation: {}",(endCompileTime-startCompileTime));
+
+        gcMonitor.start();
+        startCompileTime = jit.getTotalCompilationTime();
+        RunCachingTest.executeTestWithThreads(1,iterations,classValueCachingCallable);
+        RunCachingTest.executeTestWithThreads(10,iterations,classValueCachingCallable);
+        RunCachingTest.executeTestWithThreads(20,iterations,classValueCachingCallable);
+        endCompileTime = jit.getTotalCompilationTime();
+        gcMonitor.report();
+        log.info("Jit compilation: {}",(endCompileTime-startCompileTime));
+
+        gcMonitor.start();
+        startCompileTime = jit.getTotalCompilationTime();
+        RunCachingTest.executeTestWithThreads(1,iterations,writeOrderedCachingCallable);
+        RunCachingTest.executeTestWithThreads(10,iterations,writeOrderedCachingCallable);
+        RunCachingTest.executeTestWithThreads(20,iterations,writeOrderedCachingCallable);
+        endCompileTime = jit.getTotalCompilationTime();
+        gcMonitor.report();
+        log.info("Jit compilation: {}",(endCompileTime-startCompileTime));
         log.info("--------------");
 
         System.gc();
@@ -97,7 +167,9 @@ public class RunCachingTest {
         log.info("CACHE BUILDER");
         log.info("--------------");
 
-        HeapMonitor heapMonitor = new HeapMonitor();
+        HeapMonitor heapMonitor = new HeapMonitor(latencyRecorder,timeSeries);
+        PendingAccessMonitor pendingAccessMonitor = new PendingAccessMonitor(pendingAccessWarning,timeSeries)
+                .monitor("CacheBuilder",cache).start();
 
         runThreadedExecution(1, iterations, cachingCallable);
         runThreadedExecution(2, iterations, cachingCallable);
@@ -109,6 +181,7 @@ public class RunCachingTest {
 
 
         heapMonitor.stop();
+        pendingAccessMonitor.stop();
         cache.close();
         System.gc();
 
@@ -121,7 +194,7 @@ public class RunCachingTest {
         log.info("GET ANNOTATIONS");
         log.info("--------------");
 
-        heapMonitor = new HeapMonitor();
+        heapMonitor = new HeapMonitor(latencyRecorder,timeSeries);
 
         runThreadedExecution(1, iterations, noncachingCallables);
         runThreadedExecution(2, iterations, noncachingCallables);
@@ -143,7 +216,9 @@ public class RunCachingTest {
         log.info("LINKED CACHE BUILDER");
         log.info("--------------");
 
-        heapMonitor = new HeapMonitor();
+        heapMonitor = new HeapMonitor(latencyRecorder,timeSeries);
+        pendingAccessMonitor = new PendingAccessMonitor(pendingAccessWarning,timeSeries)
+                .monitor("LinkedCacheBuilder",linkedCache).start();
 
         runThreadedExecution(1, iterations, linkedCachingCallable);
         runThreadedExecution(2, iterations, linkedCachingCallable);
@@ -154,28 +229,146 @@ public class RunCachingTest {
         runThreadedExecution(64, iterations, linkedCachingCallable);
 
         heapMonitor.stop();
+        pendingAccessMonitor.stop();
+        linkedCache.close();
+        System.gc();
+
+        log.info("");
+        log.info("");
+        log.info("");
+        log.info("");
+        log.info("--------------");
+        log.info("STRIPED READ BUFFER");
+        log.info("--------------");
+
+        heapMonitor = new HeapMonitor(latencyRecorder,timeSeries);
+        pendingAccessMonitor = new PendingAccessMonitor(pendingAccessWarning,timeSeries)
+                .monitor("StripedReadBuffer",stripedCache).start();
+
+        runThreadedExecution(1, iterations, stripedCachingCallable);
+        runThreadedExecution(2, iterations, stripedCachingCallable);
+        runThreadedExecution(4, iterations, stripedCachingCallable);
+        runThreadedExecution(8, iterations, stripedCachingCallable);
+        runThreadedExecution(16, iterations, stripedCachingCallable);
+        runThreadedExecution(32, iterations, stripedCachingCallable);
+        runThreadedExecution(64, iterations, stripedCachingCallable);
+
+        heapMonitor.stop();
+        pendingAccessMonitor.stop();
+        stripedCache.close();
+        System.gc();
+
+        log.info("");
+        log.info("");
+        log.info("");
+        log.info("");
+        log.info("--------------");
+        log.info("CLASS VALUE");
+        log.info("--------------");
+
+        heapMonitor = new HeapMonitor(latencyRecorder,timeSeries);
+
+        runThreadedExecution(1, iterations, classValueCachingCallable);
+        runThreadedExecution(2, iterations, classValueCachingCallable);
+        runThreadedExecution(4, iterations, classValueCachingCallable);
+        runThreadedExecution(8, iterations, classValueCachingCallable);
+        runThreadedExecution(16, iterations, classValueCachingCallable);
+        runThreadedExecution(32, iterations, classValueCachingCallable);
+        runThreadedExecution(64, iterations, classValueCachingCallable);
+
+        heapMonitor.stop();
+        classValueCache.close();
+        System.gc();
+
+        log.info("");
+        log.info("");
+        log.info("");
+        log.info("");
+        log.info("--------------");
+        log.info("WRITE ORDERED");
+        log.info("--------------");
+
+        heapMonitor = new HeapMonitor(latencyRecorder,timeSeries);
+
+        runThreadedExecution(1, iterations, writeOrderedCachingCallable);
+        runThreadedExecution(2, iterations, writeOrderedCachingCallable);
+        runThreadedExecution(4, iterations, writeOrderedCachingCallable);
+        runThreadedExecution(8, iterations, writeOrderedCachingCallable);
+        runThreadedExecution(16, iterations, writeOrderedCachingCallable);
+        runThreadedExecution(32, iterations, writeOrderedCachingCallable);
+        runThreadedExecution(64, iterations, writeOrderedCachingCallable);
+
+        heapMonitor.stop();
+        writeOrderedCache.close();
+        System.gc();
+
+        log.info("");
+        log.info("");
+        log.info("");
+        log.info("");
+        log.info("--------------");
+        log.info("FIXED RATE ({} ops/s per thread)",FIXED_RATE_OPERATIONS_PER_SECOND);
+        log.info("--------------");
+
+        // at a fixed rate a stall (i.e. a gc pause) delays all the operations scheduled behind it; each
+        // operation's latency is measured from when it should have started, so those delays are counted
+        int fixedRateIterations = iterations / 10;
+        AnnotationReaderExecutor fixedRateCachingCallable = new AnnotationReaderExecutor("CacheBuilder",cache,fixedRateIterations,FIXED_RATE_OPERATIONS_PER_SECOND);
+        AnnotationReaderExecutor fixedRateLinkedCachingCallable = new AnnotationReaderExecutor("LinkedCacheBuilder",linkedCache,fixedRateIterations,FIXED_RATE_OPERATIONS_PER_SECOND);
+
+        heapMonitor = new HeapMonitor(latencyRecorder,timeSeries);
+        pendingAccessMonitor = new PendingAccessMonitor(pendingAccessWarning,timeSeries)
+                .monitor("CacheBuilder",cache).monitor("LinkedCacheBuilder",linkedCache).start();
+
+        runThreadedExecution(1, fixedRateIterations, fixedRateCachingCallable);
+        runThreadedExecution(8, fixedRateIterations, fixedRateCachingCallable);
+        runThreadedExecution(1, fixedRateIterations, fixedRateLinkedCachingCallable);
+        runThreadedExecution(8, fixedRateIterations, fixedRateLinkedCachingCallable);
+
+        heapMonitor.stop();
+        pendingAccessMonitor.stop();
+        cache.close();
         linkedCache.close();
 
 
         threadPool.shutdownNow();
 
+        if(dashboard!=null) {
+            dashboard.stop();
+        }
+        if(timeSeries!=null) {
+            GCMonitor.exportTo(null);
+            timeSeries.close();
+        }
     }
 
     static class Monitor
     {
         final long duration;
-        public Monitor(long durationNs)
+        final LatencyHistogram latencies;
+        final long allocatedBytes;
+        public Monitor(long durationNs, LatencyHistogram latencies, long allocatedBytes)
         {
             duration = durationNs;
+            this.latencies = latencies;
+            this.allocatedBytes = allocatedBytes;
         }
 
         public long getDuration() { return duration; }
+
+        public long getAllocatedBytes() { return allocatedBytes; }
+
+        public LatencyHistogram getLatencies() { return latencies; }
     }
 
     private static void executeTestWithThreads(final int numThreads,
                                         final int iterations,
                                         final AnnotationReaderExecutor callable) throws InterruptedException, ExecutionException
     {
+        if(dashboard!=null) {
+            dashboard.phase("'" + callable.getName() + "' with " + numThreads + " thread(s)");
+        }
+        long start = System.nanoTime();
 
         List<Future<Monitor>> futures = new ArrayList<Future<Monitor>>();
 
@@ -185,27 +378,70 @@ public class RunCachingTest {
         }
 
         long average = 0;
+        LatencyHistogram latencies = new LatencyHistogram();
+        long allocatedBytes = 0;
 
         for(Future<Monitor> future : futures) {
             Monitor m = future.get();
             average += (m.getDuration());
+            latencies.add(m.getLatencies());
+            allocatedBytes += m.getAllocatedBytes();
         }
 
-        log.info("'{}' Finished with {} thread(s). Average time: {} ms", callable.getName(), numThreads, ((average / numThreads) / iterations));
+        long elapsed = System.nanoTime() - start;
+
+        log.info("'{}' Finished with {} thread(s). Average time: {} ns/op", callable.getName(), numThreads, ((average / numThreads) / iterations));
+        log.info("'{}' Latency{} p50: {} ns, p99: {} ns, p99.9: {} ns, max: {} ns", callable.getName(),
+                callable.isFixedRate() ? "" : " (sampled)",latencies.valueAtPercentile(50), latencies.valueAtPercentile(99),
+                latencies.valueAtPercentile(99.9), latencies.getMaximum());
+        if(AllocationMeter.isSupported()) {
+            log.info("'{}' Allocated: {} bytes/op ({} bytes)", callable.getName(),
+                    String.format("%.2f", (double) allocatedBytes / ((long) numThreads * iterations)), allocatedBytes);
+        }
+
+        if(timeSeries!=null) {
+            long now = System.currentTimeMillis();
+            timeSeries.append("Run " + callable.getName() + " threads","threads",now,numThreads);
+            timeSeries.append("Run " + callable.getName() + " throughput","ops/s",now,
+                    elapsed==0 ? 0 : ((long) numThreads * iterations * 1000000000L) / elapsed);
+            timeSeries.append("Run " + callable.getName() + " p99","ns",now,latencies.valueAtPercentile(99));
+        }
     }
 
     static class AnnotationReaderExecutor implements Callable<Monitor>
     {
+        // running flat out, 1 in this many operations is timed; timing every one would add two nanoTime
+        // calls and a record to each ~50ns hit, and skew the ns/op
+        private static final int LATENCY_SAMPLE = 64;
+        private static final int LIVE_LATENCY_SAMPLE = 64;
+        // a multiple of LATENCY_SAMPLE
+        private static final int LIVE_OPERATIONS_BATCH = 1024;
+
         private final AnnotationReader reader;
         private final int loops;
         private final String name;
+        // 0 when running flat out
+        private final long intervalNs;
+        // null without the dashboard
+        private final LiveReaderStats stats;
 
 
         public AnnotationReaderExecutor(String name,AnnotationReader reader, int iterations)
         {
+            this(name,reader,iterations,0);
+        }
+
+        /**
+         * Each thread starts an operation every 1/operationsPerSecond, rather than as soon as the last finished
+         */
+        public AnnotationReaderExecutor(String name,AnnotationReader reader, int iterations, int operationsPerSecond)
+        {
+            if(operationsPerSecond<0) throw new IllegalArgumentException("operationsPerSecond must not be negative");
             this.reader = reader;
             this.loops = iterations;
             this.name = name;
+            this.intervalNs = operationsPerSecond==0 ? 0 : TimeUnit.SECONDS.toNanos(1) / operationsPerSecond;
+            this.stats = dashboard==null ? null : dashboard.reader(name);
         }
 
         public AnnotationReader getReader() {
@@ -216,15 +452,64 @@ public class RunCachingTest {
             return name;
         }
 
+        /**
+         * @return true when every operation is timed, from its intended start; otherwise 1 in LATENCY_SAMPLE is
+         */
+        public boolean isFixedRate() {
+            return intervalNs!=0;
+        }
+
+        /**
+         * Shares the operations in batches, and every LIVE_LATENCY_SAMPLE'th latency, with the dashboard
+         */
+        private void recordLive(long i, long latency) {
+            if((i % LIVE_LATENCY_SAMPLE)==0) stats.sampleLatency(latency);
+            if((i % LIVE_OPERATIONS_BATCH)==LIVE_OPERATIONS_BATCH-1) stats.recordOperations(LIVE_OPERATIONS_BATCH);
+        }
+
         @Override
         public Monitor call() {
+            // one per thread, allocated before timing starts; recording into it allocates nothing
+            LatencyHistogram latencies = new LatencyHistogram();
 
+            long startBytes = AllocationMeter.threadAllocatedBytes();
             long startTime = System.nanoTime();
-            for (long i = 0; i < loops; i++) {
-                reader.getAnnotations(ClassWithAnnotations.class);
+            if(intervalNs==0) {
+                long i = 0;
+                while(i < loops) {
+                    // the first operation of each LATENCY_SAMPLE is timed, the rest run as an untimed loop
+                    long operationStart = System.nanoTime();
+                    reader.getAnnotations(ClassWithAnnotations.class);
+                    long latency = System.nanoTime() - operationStart;
+                    latencies.record(latency);
+                    latencyRecorder.record(latency);
+                    if(stats!=null) stats.sampleLatency(latency);
+
+                    long sampleEnd = Math.min(loops,i + LATENCY_SAMPLE);
+                    for (i++; i < sampleEnd; i++) {
+                        reader.getAnnotations(ClassWithAnnotations.class);
+                    }
+                    if(stats!=null && (i % LIVE_OPERATIONS_BATCH)==0) stats.recordOperations(LIVE_OPERATIONS_BATCH);
+                }
+            } else {
+                for (long i = 0; i < loops; i++) {
+                    // measured from when the operation should have started, not when it did; otherwise
+                    // the operations queued behind a stall are never counted (coordinated omission)
+                    long intendedStart = startTime + (i * intervalNs);
+                    while(System.nanoTime() < intendedStart) {
+                        Thread.yield();
+                    }
+                    reader.getAnnotations(ClassWithAnnotations.class);
+                    long latency = System.nanoTime() - intendedStart;
+                    latencies.record(latency);
+                    latencyRecorder.record(latency);
+                    if(stats!=null) recordLive(i,latency);
+                }
             }
             long endTime = System.nanoTime();
-            return new Monitor(endTime - startTime);
+            long allocatedBytes = AllocationMeter.allocatedSince(startBytes);
+            if(stats!=null) stats.recordOperations(loops % LIVE_OPERATIONS_BATCH);
+            return new Monitor(endTime - startTime,latencies,allocatedBytes);
 
         }
     }
@@ -0,0 +1,79 @@
+package org.greencheek.annotations;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes allocated by the current thread, from the JVM's per thread allocation counter
+ * (com.sun.management.ThreadMXBean).  Unlike the gc counts and eden graphs, this is exact, and is the
+ * same whichever collector is running.
+ *
+ * A worker takes threadAllocatedBytes() before and after its loop; the difference, less the bytes of
+ * reading the counter itself (calibrated once), is what the loop allocated.
+ */
+public class AllocationMeter {
+
+    private static Logger log = LoggerFactory.getLogger(AllocationMeter.class);
+
+    private static final com.sun.management.ThreadMXBean threadBean;
+    private static final boolean supported;
+    private static final long overheadBytes;
+
+    static {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean sunBean = null;
+        boolean enabled = false;
+        if(bean instanceof com.sun.management.ThreadMXBean) {
+            sunBean = (com.sun.management.ThreadMXBean) bean;
+            try {
+                if(sunBean.isThreadAllocatedMemorySupported()) {
+                    if(!sunBean.isThreadAllocatedMemoryEnabled()) sunBean.setThreadAllocatedMemoryEnabled(true);
+                    enabled = sunBean.isThreadAllocatedMemoryEnabled();
+                }
+            } catch (UnsupportedOperationException e) {
+                enabled = false;
+            }
+        }
+        threadBean = sunBean;
+        supported = enabled;
+        overheadBytes = supported ? calibrate() : 0;
+        if(!supported) log.warn("Per thread allocation counting is not supported by this JVM, bytes/op will not be reported");
+    }
+
+    private AllocationMeter() {
+    }
+
+    public static boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, or -1 when not supported
+     */
+    public static long threadAllocatedBytes() {
+        if(!supported) return -1;
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return the bytes allocated by the current thread since the given threadAllocatedBytes(), or -1 when not supported
+     */
+    public static long allocatedSince(long startBytes) {
+        if(!supported || startBytes<0) return -1;
+        return Math.max(0,threadAllocatedBytes() - startBytes - overheadBytes);
+    }
+
+    /**
+     * The least of a few back to back reads, so a gc, or a tlab refill, in between does not count
+     */
+    private static long calibrate() {
+        long least = Long.MAX_VALUE;
+        for(int i=0;i<16;i++) {
+            long start = threadAllocatedBytes();
+            least = Math.min(least,threadAllocatedBytes() - start);
+        }
+        return Math.max(0,least);
+    }
+}
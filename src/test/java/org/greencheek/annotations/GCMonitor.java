@@ -1,57 +1,262 @@
 package org.greencheek.annotations;
 
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.greencheek.annotations.timeseries.TimeSeriesWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Records every collection, of every collector the JVM has (Serial, Parallel, CMS, G1, Shenandoah, ZGC, ...),
+ * from the GarbageCollectionNotificationInfo notifications the collectors' mxbeans send; and on report() logs,
+ * for the collections since start(), a histogram of the durations of each phase (collector, action and cause),
+ * the total pause time, and the gc overhead (the percentage of the wall time spent paused).
+ *
+ * Each collection is counted as a pause, or as a concurrent cycle, by its action and cause rather than its collector;
+ * as one collector can report both.  The whole cycles of ZGC and Shenandoah ("end of GC cycle") are concurrent, their
+ * pauses are reported by their "Pauses" collectors.  G1's remark and cleanup ("end of concurrent GC pause") are pauses.
+ * ConcurrentMarkSweep's initial mark and remark, and its foreground collections, are pauses; its concurrent phases
+ * are not.
+ *
+ * Where the notifications are not available, the collection counts and times of each collector are reported.
+ *
+ * With exportTo(), each collection's duration and the bytes it reclaimed are also appended to a time series file.
+ */
 public class GCMonitor {
-    private static final GarbageCollectorMXBean youngCollector;
-    private static final GarbageCollectorMXBean oldCollector;
-    private static boolean hasCollectors;
 
     private static Logger log = LoggerFactory.getLogger(GCMonitor.class);
 
+    // the most collections kept, those after are counted but dropped
+    private static final int MAXIMUM_EVENTS = 1 << 20;
+
+    private static final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private static final GcEvents events = new GcEvents();
+    private static final boolean hasNotifications;
+    // null when the collections are not exported
+    private static volatile TimeSeriesWriter exporter;
 
     static {
-        List<GarbageCollectorMXBean> garbageCollectors = ManagementFactory.getGarbageCollectorMXBeans();
-        GarbageCollectorMXBean yC = null;
-        GarbageCollectorMXBean oC = null;
-        for (GarbageCollectorMXBean garbageCollector : garbageCollectors) {
-            if ("PS Scavenge".equals(garbageCollector.getName()) ||
-                    "ParNew".equals(garbageCollector.getName()) ||
-                    "G1 Young Generation".equals(garbageCollector.getName()))
-                yC = garbageCollector;
-            else if ("PS MarkSweep".equals(garbageCollector.getName()) ||
-                    "ConcurrentMarkSweep".equals(garbageCollector.getName()) ||
-                    "G1 Old Generation".equals(garbageCollector.getName()))
-                oC = garbageCollector;
+        boolean subscribed = false;
+        try {
+            for(int i=0;i<collectors.size();i++) {
+                GarbageCollectorMXBean collector = collectors.get(i);
+                if(collector instanceof NotificationEmitter) {
+                    ((NotificationEmitter) collector).addNotificationListener(new CollectionListener(i),null,null);
+                    subscribed = true;
+                }
+            }
+        } catch (NoClassDefFoundError e) {
+            // not a jvm with com.sun.management, fall back to the counts
+            subscribed = false;
         }
+        hasNotifications = subscribed;
+    }
 
-        hasCollectors = yC != null && oC != null;
-        youngCollector = yC;
-        oldCollector = oC;
+    /**
+     * Appends every collection from now on to the given writer, or stops if null
+     */
+    public static void exportTo(TimeSeriesWriter writer) {
+        exporter = writer;
     }
 
-    private volatile long youngStartNo;
-    private volatile long oldStartNo;
+    private volatile int startEvent;
+    private volatile long startNanos;
+    private final long[] startCounts = new long[collectors.size()];
+    private final long[] startTimes = new long[collectors.size()];
 
     public void start() {
-        if(hasCollectors) {
-            youngStartNo = youngCollector.getCollectionCount();
-            oldStartNo = oldCollector.getCollectionCount();
+        startEvent = events.size();
+        startNanos = System.nanoTime();
+        for(int i=0;i<collectors.size();i++) {
+            startCounts[i] = collectors.get(i).getCollectionCount();
+            startTimes[i] = collectors.get(i).getCollectionTime();
         }
     }
 
     public void report() {
-        if(hasCollectors) {
-           long youngNowNo = youngCollector.getCollectionCount();
-           long oldNowNo = oldCollector.getCollectionCount();
-            log.info("number of young gc collections: {}, number of old gc collections: {}",youngNowNo-youngStartNo,oldNowNo-oldStartNo);
+        long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        if(hasNotifications) {
+            reportEvents(wallMillis);
+        } else {
+            reportCounts(wallMillis);
+        }
+    }
+
+    private void reportEvents(long wallMillis) {
+        Map<String,Phase> phases = new LinkedHashMap<String,Phase>();
+        long pauseMillis = 0;
+        int pauses = 0;
+        int concurrentCycles = 0;
+        long reclaimedBytes = 0;
+
+        int dropped;
+        synchronized (events) {
+            for(int i=startEvent;i<Math.min(events.size(),MAXIMUM_EVENTS);i++) {
+                String name = collectors.get(events.collector[i]).getName() + " " + events.phases.get(events.phase[i]);
+                Phase phase = phases.get(name);
+                if(phase==null) {
+                    phase = new Phase(events.concurrentPhases.get(events.phase[i]));
+                    phases.put(name,phase);
+                }
+                phase.durations.record(events.durationMillis[i]);
+                if(phase.concurrent) {
+                    concurrentCycles++;
+                } else {
+                    pauseMillis += events.durationMillis[i];
+                    pauses++;
+                }
+                reclaimedBytes += events.usedBeforeBytes[i] - events.usedAfterBytes[i];
+            }
+            dropped = Math.max(0,events.size() - Math.max(startEvent,MAXIMUM_EVENTS));
+        }
+
+        log.info("gc: {} pauses, {} ms paused, {}% overhead, {} concurrent, {} mb reclaimed, in {} ms",pauses,pauseMillis,
+                String.format("%.2f",wallMillis==0 ? 0.0 : (pauseMillis * 100.0) / wallMillis),concurrentCycles,
+                reclaimedBytes / 1024 / 1024,wallMillis);
+        for(Map.Entry<String,Phase> entry : phases.entrySet()) {
+            LatencyHistogram durations = entry.getValue().durations;
+            log.info("  {}{}: {} collections, total {} ms, p50 {} ms, p99 {} ms, max {} ms",entry.getKey(),
+                    entry.getValue().concurrent ? " (concurrent)" : "",durations.getCount(),
+                    Math.round(durations.getMean() * durations.getCount()),durations.valueAtPercentile(50),
+                    durations.valueAtPercentile(99),durations.getMaximum());
+        }
+        if(dropped>0) log.warn("  {} collections were not recorded, more than {} were buffered",dropped,MAXIMUM_EVENTS);
+    }
+
+    private void reportCounts(long wallMillis) {
+        for(int i=0;i<collectors.size();i++) {
+            GarbageCollectorMXBean collector = collectors.get(i);
+            log.info("gc: {}: {} collections, {} ms, in {} ms",collector.getName(),
+                    collector.getCollectionCount() - startCounts[i],collector.getCollectionTime() - startTimes[i],wallMillis);
+        }
+    }
+
+    /**
+     * The collections that are concurrent, of which only a small part is paused, rather than pauses
+     */
+    static boolean isConcurrent(String gcAction, String gcCause) {
+        // "end of GC pause", "end of concurrent GC pause"
+        if(gcAction.contains("pause")) return false;
+        // "end of GC cycle"
+        if(gcAction.contains("cycle")) return true;
+        // CMS names its phases by the cause, i.e. "CMS Initial Mark" and "CMS Final Remark" stop the world.
+        // Anything else is a pause, i.e. "end of minor GC", or Shenandoah's "Init Mark"
+        return gcCause.startsWith("CMS Concurrent");
+    }
+
+    private static final class Phase {
+        // in milliseconds, the resolution of GcInfo
+        final LatencyHistogram durations = new LatencyHistogram();
+        final boolean concurrent;
+
+        Phase(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+    }
+
+    private static final class CollectionListener implements NotificationListener {
+        private final int collector;
+
+        CollectionListener(int collector) {
+            this.collector = collector;
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if(!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) return;
+
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            GcInfo gcInfo = info.getGcInfo();
+            long usedBefore = used(gcInfo.getMemoryUsageBeforeGc());
+            long usedAfter = used(gcInfo.getMemoryUsageAfterGc());
+            events.add(collector,info.getGcAction() + " (" + info.getGcCause() + ")",isConcurrent(info.getGcAction(),info.getGcCause()),
+                    gcInfo.getDuration(),usedBefore,usedAfter);
+
+            TimeSeriesWriter writer = exporter;
+            if(writer!=null) {
+                long now = System.currentTimeMillis();
+                writer.append("GC " + info.getGcName() + " duration","ms",now,gcInfo.getDuration());
+                writer.append("GC " + info.getGcName() + " reclaimed","bytes",now,usedBefore - usedAfter);
+            }
+        }
+
+        private static long used(Map<String,MemoryUsage> pools) {
+            long used = 0;
+            for(MemoryUsage usage : pools.values()) used += usage.getUsed();
+            return used;
+        }
+    }
+
+    /**
+     * The collections, as parallel primitive arrays; the phase names are interned into a list.  Written by
+     * the jmx notification thread, read by report().
+     */
+    private static final class GcEvents {
+        // guarded by this
+        private int size;
+        int[] collector = new int[256];
+        int[] phase = new int[256];
+        long[] durationMillis = new long[256];
+        long[] usedBeforeBytes = new long[256];
+        long[] usedAfterBytes = new long[256];
+        final List<String> phases = new ArrayList<String>();
+        // by phase index
+        final List<Boolean> concurrentPhases = new ArrayList<Boolean>();
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void add(int collectorIndex, String phaseName, boolean concurrent, long duration, long usedBefore, long usedAfter) {
+            int index = size++;
+            if(index>=MAXIMUM_EVENTS) return;
+            if(index==collector.length) grow();
+
+            int phaseIndex = phases.indexOf(phaseName);
+            if(phaseIndex<0) {
+                phaseIndex = phases.size();
+                phases.add(phaseName);
+                concurrentPhases.add(concurrent);
+            }
+
+            collector[index] = collectorIndex;
+            phase[index] = phaseIndex;
+            durationMillis[index] = duration;
+            usedBeforeBytes[index] = usedBefore;
+            usedAfterBytes[index] = usedAfter;
+        }
 
+        private void grow() {
+            int capacity = Math.min(MAXIMUM_EVENTS,collector.length * 2);
+            int[] collectorCopy = new int[capacity];
+            int[] phaseCopy = new int[capacity];
+            long[] durationCopy = new long[capacity];
+            long[] usedBeforeCopy = new long[capacity];
+            long[] usedAfterCopy = new long[capacity];
+            System.arraycopy(collector,0,collectorCopy,0,collector.length);
+            System.arraycopy(phase,0,phaseCopy,0,phase.length);
+            System.arraycopy(durationMillis,0,durationCopy,0,durationMillis.length);
+            System.arraycopy(usedBeforeBytes,0,usedBeforeCopy,0,usedBeforeBytes.length);
+            System.arraycopy(usedAfterBytes,0,usedAfterCopy,0,usedAfterBytes.length);
+            collector = collectorCopy;
+            phase = phaseCopy;
+            durationMillis = durationCopy;
+            usedBeforeBytes = usedBeforeCopy;
+            usedAfterBytes = usedAfterCopy;
         }
     }
 
-}
\ No newline at end of file
+}
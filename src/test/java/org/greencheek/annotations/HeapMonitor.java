@@ -1,134 +1,193 @@
 package org.greencheek.annotations;
 
-import org.greencheek.annotations.axis.IterativeVerticalAxisCreator;
-import org.greencheek.spark.Spark;
-import org.greencheek.annotations.axis.VerticalAxisCreator;
-import org.greencheek.spark.Spark2;
+import org.greencheek.annotations.timeseries.TimeSeriesWriter;
+import org.greencheek.spark.StreamingSpark;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
 import java.util.concurrent.*;
 
 /**
+ * Samples the memory pools, every 10ms by default, and on stop() graphs each of them.
+ *
+ * The pools are found by name, whichever the collector: eden, survivor and old (or tenured) spaces,
+ * metaspace (perm space before java 8), the code cache, and any other heap pool (i.e. ZHeap) by its
+ * own name; pools of the same kind (i.e. the code heap segments) are summed.  The usage after the
+ * last collection, of the pools that have one, is sampled as well.
+ *
+ * The samples go into preallocated int rings (SampleRing), of the most recent SAMPLE_CAPACITY samples,
+ * so sampling does not box or queue.  Reading a pool's usage does create a MemoryUsage; a few small
+ * objects per sample, of the sampling thread.
+ *
+ * Given a TimeSeriesWriter, each sample is also appended to it as it is taken, for runs longer than the rings.
+ *
  * User: dominictootell
  * Date: 02/03/2013
  * Time: 16:43
  */
 public class HeapMonitor {
-    private final MemoryPoolMXBean youngMemoryPool;
-    private final MemoryPoolMXBean survivorMemoryPool;
-    private final MemoryPoolMXBean oldMemoryPool;
-    private final MemoryPoolMXBean permMemoryPool;
-    private final boolean hasMemoryPools;
-    private ScheduledExecutorService threadPool = Executors.newScheduledThreadPool(1);
+
+    public static final long DEFAULT_SAMPLE_PERIOD_MICROS = 10000;
+    // at 10ms, the last 20 minutes or so
+    static final int SAMPLE_CAPACITY = 1 << 17;
+    // longer series are graphed with the minimum and maximum of each run of samples
+    static final int GRAPH_WIDTH = 200;
 
     private static Logger log = LoggerFactory.getLogger(HeapMonitor.class);
 
+    private final List<Series> series;
+    private final ScheduledExecutorService threadPool = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,"heap-monitor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // null when latency is not being graphed
+    private final LatencyIntervalRecorder latencyRecorder;
+    private final SampleRing maximumLatency = new SampleRing(SAMPLE_CAPACITY);
 
-    private Queue<Integer> youngHeapSize = new ConcurrentLinkedQueue<Integer>();
-    private Queue<Integer> survivorHeapSize = new ConcurrentLinkedQueue<Integer>();
-    private Queue<Integer> oldHeapSize = new ConcurrentLinkedQueue<Integer>();
-    private Queue<Integer> permHeapSize = new ConcurrentLinkedQueue<Integer>();
+    // null when the samples are not exported
+    private final TimeSeriesWriter exporter;
+    private final int latencySeriesId;
 
     public HeapMonitor() {
+        this(null);
+    }
 
-        MemoryPoolMXBean youngPool = null;
-        MemoryPoolMXBean survivorPool = null;
-        MemoryPoolMXBean oldPool = null;
-        MemoryPoolMXBean permPool = null;
+    /**
+     * Also graphs the maximum latency recorded in each sample interval, alongside the heap
+     */
+    public HeapMonitor(LatencyIntervalRecorder latencyRecorder) {
+        this(latencyRecorder,DEFAULT_SAMPLE_PERIOD_MICROS,TimeUnit.MICROSECONDS);
+    }
 
-        List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+    public HeapMonitor(LatencyIntervalRecorder latencyRecorder, long samplePeriod, TimeUnit unit) {
+        this(latencyRecorder,null,samplePeriod,unit);
+    }
 
-        for (MemoryPoolMXBean memoryPool : memoryPools)
-        {
-            String poolName = memoryPool.getName();
-            if ("PS Eden Space".equals(poolName) ||
-                    "Par Eden Space".equals(poolName) ||
-                    "G1 Eden".equals(poolName))
-                youngPool = memoryPool;
-            else if ("PS Survivor Space".equals(poolName) ||
-                    "Par Survivor Space".equals(poolName) ||
-                    "G1 Survivor".equals(poolName))
-                survivorPool = memoryPool;
-            else if ("PS Old Gen".equals(poolName) ||
-                    "CMS Old Gen".equals(poolName) ||
-                    "G1 Old Gen".equals(poolName))
-                oldPool = memoryPool;
-            else if(poolName.contains("Perm"))
-                permPool = memoryPool;
-        }
+    public HeapMonitor(LatencyIntervalRecorder latencyRecorder, TimeSeriesWriter exporter) {
+        this(latencyRecorder,exporter,DEFAULT_SAMPLE_PERIOD_MICROS,TimeUnit.MICROSECONDS);
+    }
 
-        youngMemoryPool = youngPool;
-        survivorMemoryPool = survivorPool;
-        oldMemoryPool = oldPool;
-        permMemoryPool = permPool;
+    public HeapMonitor(LatencyIntervalRecorder latencyRecorder, TimeSeriesWriter exporter, long samplePeriod, TimeUnit unit) {
+        if(samplePeriod<1) throw new IllegalArgumentException("samplePeriod must be greater than 0");
+        this.latencyRecorder = latencyRecorder;
+        this.exporter = exporter;
+        this.series = discoverSeries(ManagementFactory.getMemoryPoolMXBeans());
 
-        hasMemoryPools = youngMemoryPool != null && survivorMemoryPool != null && oldMemoryPool != null && permMemoryPool!=null;
+        if(exporter!=null) {
+            for(Series s : series) {
+                s.exportedId = exporter.series(s.name,"bytes");
+            }
+        }
+        latencySeriesId = exporter!=null && latencyRecorder!=null ? exporter.series("Max Latency","ns") : -1;
 
-        if(hasMemoryPools) {
-             threadPool.scheduleAtFixedRate(new HeapMemoryCallable(),0,500, TimeUnit.MILLISECONDS);
+        if(latencyRecorder!=null) {
+            latencyRecorder.takeIntervalMaximum();
         }
 
+        threadPool.scheduleAtFixedRate(new HeapMemoryCallable(),0,samplePeriod,unit);
     }
 
-    private int[] toIntArray(Integer[] integers) {
-        int[] ints = new int[integers.length];
+    static List<Series> discoverSeries(List<MemoryPoolMXBean> memoryPools) {
+        Map<String,List<MemoryPoolMXBean>> pools = new LinkedHashMap<String,List<MemoryPoolMXBean>>();
+        for (MemoryPoolMXBean memoryPool : memoryPools)
+        {
+            if(!memoryPool.isValid()) continue;
+            String name = seriesName(memoryPool.getName(),memoryPool.getType());
+            List<MemoryPoolMXBean> named = pools.get(name);
+            if(named==null) {
+                named = new ArrayList<MemoryPoolMXBean>();
+                pools.put(name,named);
+            }
+            named.add(memoryPool);
+        }
 
-        int i=0;
-        for (Integer integer : integers) {
-            ints[i] = integer.intValue();
-            i++;
+        List<Series> series = new ArrayList<Series>();
+        for(Map.Entry<String,List<MemoryPoolMXBean>> entry : pools.entrySet()) {
+            MemoryPoolMXBean[] named = entry.getValue().toArray(new MemoryPoolMXBean[entry.getValue().size()]);
+            series.add(new Series(entry.getKey(),named,false));
+            if(named[0].getCollectionUsage()!=null) {
+                series.add(new Series(entry.getKey() + " After GC",named,true));
+            }
         }
-        return ints;
+        return series;
     }
 
-    private void logMemoryUseWithAxis(String memoryName,Queue<Integer> memory) {
-        VerticalAxisCreator heapAxisOutputter = new IterativeVerticalAxisCreator();
+    static String seriesName(String poolName, MemoryType type) {
+        if(poolName.contains("Eden") || poolName.contains("Young")) return "Young Space";
+        if(poolName.contains("Survivor")) return "Survivor Space";
+        if(poolName.contains("Old") || poolName.contains("Tenured")) return "Old Space";
+        if(poolName.contains("Perm")) return "Perm Space";
+        if(poolName.equals("Metaspace")) return "Metaspace";
+        if(poolName.contains("Compressed Class")) return "Compressed Class Space";
+        if(poolName.contains("Code")) return "Code Cache";
+        return type==MemoryType.HEAP ? poolName : poolName + " (non heap)";
+    }
 
-        int[] heap =toIntArray(memory.toArray(new Integer[memory.size()]));
+    private void logMemoryUseWithAxis(String memoryName,SampleRing kibiBytes) {
+        logSeriesWithAxis(log,memoryName,"mb",kibiBytes,1024);
+    }
 
-        Spark2.Spark2Result heapGraph = Spark2.graph(heap);
+    /**
+     * Graphs the ring, oldest sample first, each divided by the given divisor, in no more than GRAPH_WIDTH columns
+     */
+    static void logSeriesWithAxis(Logger log,String memoryName,String unit,SampleRing samples,int divisor) {
+        if(samples.size()==0) return;
+
+        StreamingSpark heapGraph = new StreamingSpark(GRAPH_WIDTH);
+        for(int i=0;i<samples.size();i++) {
+            heapGraph.add(samples.get(i) / divisor);
+        }
 
         if(log.isInfoEnabled()) {
-            String tabbedLine = String.format("%1$" + (memoryName.length()+(" in mb".length())) + "s", "");
-            log.info("{} in mb:",memoryName);
-            log.info("(min:{}/max:{})",heapGraph.getMin(),heapGraph.getMax());
+            String tabbedLine = String.format("%1$" + (memoryName.length()+(" in ".length())+unit.length()) + "s", "");
+            log.info("{} in {}:",memoryName,unit);
+            log.info("(min:{}/max:{}, {} samples, {} per column)",heapGraph.getMin(),heapGraph.getMax(),
+                    heapGraph.getCount(),heapGraph.getSamplesPerColumn());
             for(String heapGraphLine : heapGraph.graphToStringArray()) {
                 log.info("{}:{}",tabbedLine,heapGraphLine);
             }
 
-            for(String axisValue : heapAxisOutputter.verticalAxis(heap,4)) {
+            for(String axisValue : heapGraph.axisToStringArray(4)) {
                 log.info("{}:{}",tabbedLine,axisValue);
             }
             log.info("");
         }
-
-
-
-
-
     }
 
     public void stopRecordingMemoryUse() {
         threadPool.shutdownNow();
+        try {
+            threadPool.awaitTermination(1,TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
 
     public void stop() {
         stopRecordingMemoryUse();
 
-        logMemoryUseWithAxis("Young Space",youngHeapSize);
-        logMemoryUseWithAxis("Survivor Space",survivorHeapSize);
-        logMemoryUseWithAxis("Old Space",oldHeapSize);
-        logMemoryUseWithAxis("Perm Space",permHeapSize);
-
-        youngHeapSize.clear();
-        survivorHeapSize.clear();
-        oldHeapSize.clear();
+        for(Series s : series) {
+            logMemoryUseWithAxis(s.name,s.samples);
+            s.samples.clear();
+        }
+        if(latencyRecorder!=null) {
+            logSeriesWithAxis(log,"Max Latency","us",maximumLatency,1);
+        }
+        maximumLatency.clear();
     }
 
 
@@ -137,19 +196,54 @@ public class HeapMonitor {
         return Math.round(bytes / 1024 / 1024);
     }
 
+    public int kibiBytes(long bytes)
+    {
+        return (int) Math.min(Integer.MAX_VALUE,bytes / 1024);
+    }
+
+    public int microSeconds(long nanos)
+    {
+        return (int) Math.min(Integer.MAX_VALUE,TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    static final class Series {
+        final String name;
+        final MemoryPoolMXBean[] pools;
+        final boolean afterCollection;
+        final SampleRing samples = new SampleRing(SAMPLE_CAPACITY);
+        int exportedId = -1;
+
+        Series(String name, MemoryPoolMXBean[] pools, boolean afterCollection) {
+            this.name = name;
+            this.pools = pools;
+            this.afterCollection = afterCollection;
+        }
+
+        long used() {
+            long used = 0;
+            for(MemoryPoolMXBean pool : pools) {
+                MemoryUsage usage = afterCollection ? pool.getCollectionUsage() : pool.getUsage();
+                if(usage!=null) used += usage.getUsed();
+            }
+            return used;
+        }
+    }
+
     public class HeapMemoryCallable implements Runnable {
 
         @Override
         public void run() {
-            long young = youngMemoryPool.getUsage().getUsed();
-            long survivor = survivorMemoryPool.getUsage().getUsed();
-            long old = oldMemoryPool.getUsage().getUsed();
-            long perm = permMemoryPool.getUsage().getUsed();
-
-            youngHeapSize.add(mebiBytes(young));
-            survivorHeapSize.add(mebiBytes(survivor));
-            oldHeapSize.add(mebiBytes(old));
-            permHeapSize.add(mebiBytes(perm));
+            long now = System.currentTimeMillis();
+            for(Series s : series) {
+                long used = s.used();
+                s.samples.add(kibiBytes(used));
+                if(exporter!=null) exporter.append(s.exportedId,now,used);
+            }
+            if(latencyRecorder!=null) {
+                long latency = latencyRecorder.takeIntervalMaximum();
+                maximumLatency.add(microSeconds(latency));
+                if(exporter!=null) exporter.append(latencySeriesId,now,latency);
+            }
         }
     }
 
@@ -0,0 +1,106 @@
+package org.greencheek.annotations;
+
+/**
+ * A log-linear histogram of latencies in nanoseconds.  Each power of two is split into
+ * SUB_BUCKET_COUNT linear buckets, so a recorded value is reported to within about 3%
+ * (1 / SUB_BUCKET_COUNT), from 1ns up to the largest long.
+ *
+ * Recording is an array increment, and allocates nothing.  Not thread safe: each thread records
+ * into its own histogram, and they are merged with add() once the threads have finished.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long maximum;
+    private long sum;
+
+    public void record(long nanos) {
+        long value = Math.max(0,nanos);
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        if(value>maximum) maximum = value;
+    }
+
+    /**
+     * Adds count values to the bucket of the given index, i.e. from a shared array of bucket counts; as the
+     * values are not known, the mean and maximum take the highest value of the bucket
+     */
+    void recordBucket(int index, long count) {
+        if(count==0) return;
+        long value = highestValueOf(index);
+        counts[index] += count;
+        totalCount += count;
+        sum += value * count;
+        if(value>maximum) maximum = value;
+    }
+
+    /**
+     * Adds the other histogram's counts to this one
+     */
+    public void add(LatencyHistogram other) {
+        for(int i=0;i<BUCKET_COUNT;i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        maximum = Math.max(maximum,other.maximum);
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMaximum() {
+        return maximum;
+    }
+
+    public double getMean() {
+        return totalCount==0 ? 0 : (double) sum / totalCount;
+    }
+
+    /**
+     * @return the highest value, of the bucket, at or below which the given percentage of the values fall
+     */
+    public long valueAtPercentile(double percentile) {
+        if(totalCount==0) return 0;
+        long target = Math.max(1,(long) Math.ceil((percentile / 100.0) * totalCount));
+        long seen = 0;
+        for(int i=0;i<BUCKET_COUNT;i++) {
+            seen += counts[i];
+            if(seen>=target) {
+                return Math.min(highestValueOf(i),maximum);
+            }
+        }
+        return maximum;
+    }
+
+    public void reset() {
+        for(int i=0;i<BUCKET_COUNT;i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        sum = 0;
+        maximum = 0;
+    }
+
+    static int indexOf(long value) {
+        if(value<SUB_BUCKET_COUNT) return (int) value;
+        int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    }
+
+    static long highestValueOf(int index) {
+        if(index<SUB_BUCKET_COUNT) return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long lowest = ((long) (SUB_BUCKET_COUNT | (index & SUB_BUCKET_MASK))) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+}
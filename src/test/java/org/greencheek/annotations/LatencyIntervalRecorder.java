@@ -0,0 +1,28 @@
+package org.greencheek.annotations;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the maximum latency seen, across all threads, since it was last taken; so that HeapMonitor
+ * can plot latency over time, against the heap, at the same interval it samples the heap at.
+ *
+ * A recording thread only writes when it has a new maximum, so the shared value is mostly read.
+ */
+public class LatencyIntervalRecorder {
+
+    private final AtomicLong intervalMaximum = new AtomicLong();
+
+    public void record(long nanos) {
+        long maximum;
+        while(nanos>(maximum = intervalMaximum.get())) {
+            if(intervalMaximum.compareAndSet(maximum,nanos)) return;
+        }
+    }
+
+    /**
+     * @return the maximum latency recorded since the last call, and starts a new interval
+     */
+    public long takeIntervalMaximum() {
+        return intervalMaximum.getAndSet(0);
+    }
+}
@@ -0,0 +1,220 @@
+package org.greencheek.annotations;
+
+import org.greencheek.spark.Spark;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redraws a fixed region at the top of the terminal, once a second, while a benchmark runs: the used size of
+ * each memory pool, the collections and gc time per second, and the ops/s and p99 of each reader, each with
+ * a sparkline (Spark's ticks) of the last HISTORY seconds.
+ *
+ * The region is kept out of the terminal's scrolling region (ansi DECSTBM), so the log scrolls beneath it.
+ * A frame is built into a reused StringBuilder from int rings; other than reading the pools, the one
+ * allocation of a frame is the String that is written.
+ */
+public class LiveDashboard {
+
+    static final int HISTORY = 60;
+    private static final int NAME_WIDTH = 22;
+    private static final String ESC = "\u001B[";
+
+    private final PrintStream out;
+    private final List<HeapMonitor.Series> pools = new ArrayList<HeapMonitor.Series>();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    // guarded by itself; added to before start()
+    private final Map<String,LiveReaderStats> readers = new LinkedHashMap<String,LiveReaderStats>();
+
+    private final ScheduledExecutorService redraw = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,"live-dashboard");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile String phase = "";
+
+    // the rest only used by the redraw thread
+    private final StringBuilder frame = new StringBuilder(8192);
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private int[][] poolHistory;
+    private final int[] pauseHistory = new int[HISTORY];
+    private int[][] operationsHistory;
+    private int[][] p99History;
+    private LiveReaderStats[] readerStats;
+    private long[] lastCollections;
+    private long[] lastCollectionTimes;
+    private long lastNanos;
+    private int seconds;
+    private int height;
+
+    public LiveDashboard() {
+        this(System.out);
+    }
+
+    public LiveDashboard(PrintStream out) {
+        this.out = out;
+        for(HeapMonitor.Series series : HeapMonitor.discoverSeries(ManagementFactory.getMemoryPoolMXBeans())) {
+            if(!series.afterCollection) pools.add(series);
+        }
+    }
+
+    /**
+     * @return the stats the threads of the named reader record into; the same for the same name
+     */
+    public LiveReaderStats reader(String name) {
+        synchronized (readers) {
+            LiveReaderStats stats = readers.get(name);
+            if(stats==null) {
+                stats = new LiveReaderStats(name);
+                readers.put(name,stats);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Shown in the title, i.e. the reader and threads that are running
+     */
+    public void phase(String phase) {
+        this.phase = phase;
+    }
+
+    public void start() {
+        synchronized (readers) {
+            readerStats = readers.values().toArray(new LiveReaderStats[readers.size()]);
+        }
+        poolHistory = new int[pools.size()][HISTORY];
+        operationsHistory = new int[readerStats.length][HISTORY];
+        p99History = new int[readerStats.length][HISTORY];
+        lastCollections = new long[collectors.size()];
+        lastCollectionTimes = new long[collectors.size()];
+        for(int i=0;i<collectors.size();i++) {
+            lastCollections[i] = collectors.get(i).getCollectionCount();
+            lastCollectionTimes[i] = collectors.get(i).getCollectionTime();
+        }
+        lastNanos = System.nanoTime();
+
+        // title, pools, gc, readers
+        height = 1 + pools.size() + 1 + readerStats.length + 1;
+        // clear the screen, then scroll only the lines below the region
+        out.print(ESC + "2J" + ESC + (height + 1) + ";r" + ESC + (height + 1) + ";1H");
+        out.flush();
+
+        redraw.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                draw();
+            }
+        },1,1,TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops redrawing, and gives the whole terminal back to scrolling
+     */
+    public void stop() {
+        redraw.shutdownNow();
+        try {
+            redraw.awaitTermination(1,TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.print(ESC + "r" + ESC + "999;1H");
+        out.flush();
+    }
+
+    private void draw() {
+        long now = System.nanoTime();
+        long elapsedNanos = Math.max(1,now - lastNanos);
+        lastNanos = now;
+        int slot = seconds % HISTORY;
+        seconds++;
+
+        frame.setLength(0);
+        // save the cursor, draw from the top left
+        frame.append("\u001B7");
+        line(1).append("live: ").append(phase).append("  (").append(seconds).append("s)");
+
+        for(int i=0;i<pools.size();i++) {
+            HeapMonitor.Series pool = pools.get(i);
+            int mebiBytes = (int) (pool.used() / 1024 / 1024);
+            poolHistory[i][slot] = mebiBytes;
+            sparkline(line(2 + i),pool.name,poolHistory[i]).append(mebiBytes).append(" mb");
+        }
+
+        long collections = 0;
+        long collectionMillis = 0;
+        for(int i=0;i<collectors.size();i++) {
+            long count = collectors.get(i).getCollectionCount();
+            long time = collectors.get(i).getCollectionTime();
+            collections += count - lastCollections[i];
+            collectionMillis += time - lastCollectionTimes[i];
+            lastCollections[i] = count;
+            lastCollectionTimes[i] = time;
+        }
+        pauseHistory[slot] = (int) collectionMillis;
+        sparkline(line(2 + pools.size()),"GC time",pauseHistory).append(collections).append(" gc/s, ")
+                .append(collectionMillis).append(" ms/s (")
+                .append((collectionMillis * 100000000L) / elapsedNanos).append("%)");
+
+        for(int i=0;i<readerStats.length;i++) {
+            LiveReaderStats stats = readerStats[i];
+            long operationsPerSecond = (stats.takeOperations() * 1000000000L) / elapsedNanos;
+            stats.takeLatencies(latencies);
+            int p99 = (int) Math.min(Integer.MAX_VALUE,latencies.valueAtPercentile(99));
+            operationsHistory[i][slot] = (int) Math.min(Integer.MAX_VALUE,operationsPerSecond);
+            p99History[i][slot] = p99;
+            StringBuilder line = sparkline(line(3 + pools.size() + i),stats.getName(),operationsHistory[i]);
+            line.append(operationsPerSecond).append(" ops/s, p99 ");
+            appendSparkline(line,p99History[i]).append(' ').append(p99).append(" ns");
+        }
+        line(height).append("--------------");
+
+        // restore the cursor, into the scrolling region
+        frame.append("\u001B8");
+        out.print(frame);
+        out.flush();
+    }
+
+    /**
+     * @return the frame, at the start of the cleared line
+     */
+    private StringBuilder line(int row) {
+        return frame.append(ESC).append(row).append(";1H").append(ESC).append("2K");
+    }
+
+    private StringBuilder sparkline(StringBuilder line, String name, int[] history) {
+        int length = Math.min(name.length(),NAME_WIDTH);
+        line.append(name,0,length);
+        for(int i=length;i<=NAME_WIDTH;i++) line.append(' ');
+        return appendSparkline(line,history).append(' ');
+    }
+
+    /**
+     * The last HISTORY seconds, the oldest first
+     */
+    private StringBuilder appendSparkline(StringBuilder line, int[] history) {
+        int count = Math.min(seconds,HISTORY);
+        int from = seconds - count;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for(int i=0;i<count;i++) {
+            int value = history[(from + i) % HISTORY];
+            if(value<min) min = value;
+            if(value>max) max = value;
+        }
+        return Spark.append(line,history,from % HISTORY,count,min,max);
+    }
+}
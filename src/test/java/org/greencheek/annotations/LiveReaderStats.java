@@ -0,0 +1,49 @@
+package org.greencheek.annotations;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The operations, and a sample of the latencies, of a reader's benchmark threads, that the LiveDashboard
+ * takes every second.  The threads share it, so they add their operations in batches, and record only
+ * every so many latencies (i.e. every 64th), into the buckets of a LatencyHistogram.
+ */
+public class LiveReaderStats {
+
+    private final String name;
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+
+    LiveReaderStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordOperations(long count) {
+        operations.addAndGet(count);
+    }
+
+    public void sampleLatency(long nanos) {
+        latencyBuckets.incrementAndGet(LatencyHistogram.indexOf(Math.max(0,nanos)));
+    }
+
+    /**
+     * @return the operations since the last call
+     */
+    long takeOperations() {
+        return operations.getAndSet(0);
+    }
+
+    /**
+     * Moves the latencies sampled since the last call into the given histogram, which is reset first
+     */
+    void takeLatencies(LatencyHistogram latencies) {
+        latencies.reset();
+        for(int i=0;i<LatencyHistogram.BUCKET_COUNT;i++) {
+            if(latencyBuckets.get(i)!=0) latencies.recordBucket(i,latencyBuckets.getAndSet(i,0));
+        }
+    }
+}
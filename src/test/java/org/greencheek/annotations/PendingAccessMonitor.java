@@ -0,0 +1,141 @@
+package org.greencheek.annotations;
+
+import org.greencheek.annotations.service.BufferedAnnotationReader;
+import org.greencheek.annotations.timeseries.TimeSeriesWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the pending accesses of buffering readers (BufferedAnnotationReader), every 10ms by default, and on
+ * stop() graphs each of them, as HeapMonitor does the memory pools.  A backlog of recorded accesses that the
+ * cache is not draining grows with the read rate, until the heap is full of them; this finds that from the
+ * numbers, rather than from a heap dump.
+ *
+ * When a reader's pending accesses pass the warning threshold a warning is logged, and again each time they
+ * pass it after having fallen back below half of it.
+ *
+ * Given a TimeSeriesWriter, each sample is also appended to it as "[name] Pending Accesses".
+ */
+public class PendingAccessMonitor {
+
+    public static final long DEFAULT_SAMPLE_PERIOD_MICROS = HeapMonitor.DEFAULT_SAMPLE_PERIOD_MICROS;
+    public static final long DEFAULT_WARNING_THRESHOLD = 100000;
+
+    private static Logger log = LoggerFactory.getLogger(PendingAccessMonitor.class);
+
+    private final long warningThreshold;
+    // null when the samples are not exported
+    private final TimeSeriesWriter exporter;
+    private final long samplePeriodMicros;
+    // added to before start()
+    private final List<Reader> readers = new ArrayList<Reader>();
+
+    private final ScheduledExecutorService threadPool = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,"pending-access-monitor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public PendingAccessMonitor() {
+        this(DEFAULT_WARNING_THRESHOLD,null);
+    }
+
+    public PendingAccessMonitor(long warningThreshold, TimeSeriesWriter exporter) {
+        this(warningThreshold,exporter,DEFAULT_SAMPLE_PERIOD_MICROS,TimeUnit.MICROSECONDS);
+    }
+
+    public PendingAccessMonitor(long warningThreshold, TimeSeriesWriter exporter, long samplePeriod, TimeUnit unit) {
+        if(warningThreshold<1) throw new IllegalArgumentException("warningThreshold must be greater than 0");
+        if(samplePeriod<1) throw new IllegalArgumentException("samplePeriod must be greater than 0");
+        this.warningThreshold = warningThreshold;
+        this.exporter = exporter;
+        this.samplePeriodMicros = unit.toMicros(samplePeriod);
+    }
+
+    /**
+     * Samples the reader's pending accesses, under the given name; before start()
+     */
+    public PendingAccessMonitor monitor(String name, BufferedAnnotationReader reader) {
+        Reader monitored = new Reader(name,reader);
+        if(exporter!=null) monitored.exportedId = exporter.series(name + " Pending Accesses","accesses");
+        readers.add(monitored);
+        return this;
+    }
+
+    public PendingAccessMonitor start() {
+        threadPool.scheduleAtFixedRate(new PendingAccessSampler(),0,Math.max(1,samplePeriodMicros),TimeUnit.MICROSECONDS);
+        return this;
+    }
+
+    public void stop() {
+        threadPool.shutdownNow();
+        try {
+            threadPool.awaitTermination(1,TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for(Reader reader : readers) {
+            if(reader.maximum<0) {
+                log.info("{} pending accesses could not be counted",reader.name);
+                continue;
+            }
+            log.info("{} pending accesses, maximum: {}, warnings: {}",reader.name,reader.maximum,reader.warnings);
+            HeapMonitor.logSeriesWithAxis(log,reader.name + " Pending Accesses","accesses",reader.samples,1);
+            reader.samples.clear();
+        }
+    }
+
+    private static final class Reader {
+        final String name;
+        final BufferedAnnotationReader reader;
+        final SampleRing samples = new SampleRing(HeapMonitor.SAMPLE_CAPACITY);
+        int exportedId = -1;
+
+        // the rest only used by the sampling thread
+        long maximum = -1;
+        boolean aboveThreshold;
+        int warnings;
+
+        Reader(String name, BufferedAnnotationReader reader) {
+            this.name = name;
+            this.reader = reader;
+        }
+    }
+
+    private class PendingAccessSampler implements Runnable {
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            for(Reader reader : readers) {
+                long pending = reader.reader.pendingAccesses();
+                if(pending<0) continue;
+
+                reader.samples.add((int) Math.min(Integer.MAX_VALUE,pending));
+                if(exporter!=null) exporter.append(reader.exportedId,now,pending);
+                reader.maximum = Math.max(reader.maximum,pending);
+
+                if(!reader.aboveThreshold && pending>warningThreshold) {
+                    reader.aboveThreshold = true;
+                    reader.warnings++;
+                    log.warn("{} has {} pending accesses, over the threshold of {}; they are being recorded faster than they are drained",
+                            reader.name,pending,warningThreshold);
+                } else if(reader.aboveThreshold && pending<warningThreshold/2) {
+                    reader.aboveThreshold = false;
+                    log.info("{} pending accesses back down to {}",reader.name,pending);
+                }
+            }
+        }
+    }
+}
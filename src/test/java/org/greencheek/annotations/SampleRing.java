@@ -0,0 +1,47 @@
+package org.greencheek.annotations;
+
+/**
+ * A preallocated ring of int samples, keeping the most recent capacity of them; adding a sample
+ * allocates nothing.  Written by a single sampling thread; read once that thread has stopped.
+ */
+class SampleRing {
+
+    private final int[] samples;
+    private long count;
+
+    SampleRing(int capacity) {
+        if(capacity<1) throw new IllegalArgumentException("capacity must be greater than 0");
+        samples = new int[capacity];
+    }
+
+    void add(int sample) {
+        samples[(int) (count % samples.length)] = sample;
+        count++;
+    }
+
+    /**
+     * @return the number of samples added, including those since overwritten
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * @return the number of samples held
+     */
+    int size() {
+        return (int) Math.min(count,samples.length);
+    }
+
+    /**
+     * @return the index'th sample held, oldest first
+     */
+    int get(int index) {
+        long oldest = count - size();
+        return samples[(int) ((oldest + index) % samples.length)];
+    }
+
+    void clear() {
+        count = 0;
+    }
+}
@@ -78,7 +78,9 @@ public class IterativeVerticalAxisCreator implements VerticalAxisCreator {
         for(char c : numberAsChars) {
             StringBuilder stringRow;
             if(rowsOfStrings.size()<rowNumber) {
-                stringRow = new StringBuilder(String.format("%1$" + stringLength + "s", ""));
+                stringRow = new StringBuilder(stringLength);
+                stringRow.setLength(stringLength);
+                for(int i=0;i<stringLength;i++) stringRow.setCharAt(i,' ');
                 rowsOfStrings.add(stringRow);
             } else {
                 stringRow = rowsOfStrings.get(rowNumber - 1);
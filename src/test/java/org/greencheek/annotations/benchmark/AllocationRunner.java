@@ -0,0 +1,114 @@
+package org.greencheek.annotations.benchmark;
+
+import org.greencheek.annotations.AllocationMeter;
+import org.greencheek.annotations.service.AnnotationReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the bytes allocated per getAnnotations call of each reader, exactly, from the per thread
+ * allocation counters of the worker threads (AllocationMeter).
+ *
+ * Given a maximum bytes/op it is a regression gate: it exits with 1 if any reader allocates more than
+ * that, so that an allocation per read, i.e. CacheBuilder's recency queue node, is caught in a build.
+ * <pre>
+ *   AllocationRunner [threads] [key-count] [max-bytes-per-op] [reader-type...]
+ * </pre>
+ */
+public class AllocationRunner {
+
+    private static Logger log = LoggerFactory.getLogger(AllocationRunner.class);
+
+    private static final int MAXIMUM_SIZE = 1000;
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    // written by the worker threads, so the reads are not eliminated
+    private static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        if(!AllocationMeter.isSupported()) {
+            System.err.println("Per thread allocation counting is not supported by this JVM");
+            System.exit(1);
+        }
+
+        int threads = args.length>0 ? Integer.parseInt(args[0]) : 4;
+        int keyCount = args.length>1 ? Integer.parseInt(args[1]) : 1;
+        double maximumBytesPerOperation = args.length>2 ? Double.parseDouble(args[2]) : Double.MAX_VALUE;
+        Set<ReaderType> readerTypes = EnumSet.allOf(ReaderType.class);
+        if(args.length>3) {
+            readerTypes = EnumSet.noneOf(ReaderType.class);
+            for(int i=3;i<args.length;i++) readerTypes.add(ReaderType.valueOf(args[i]));
+        }
+
+        Class[] keys = BenchmarkKeys.keys(keyCount);
+        ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+        boolean exceeded = false;
+        try {
+            for(ReaderType readerType : readerTypes) {
+                double bytesPerOperation = measure(threadPool,readerType,threads,keys);
+                if(bytesPerOperation>maximumBytesPerOperation) {
+                    exceeded = true;
+                    log.error("{} allocates {} bytes/op, more than the maximum of {}",readerType,
+                            String.format("%.2f",bytesPerOperation),maximumBytesPerOperation);
+                } else {
+                    log.info("{} with {} thread(s) and {} key(s): {} bytes/op",readerType,threads,keyCount,
+                            String.format("%.2f",bytesPerOperation));
+                }
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        if(exceeded) System.exit(1);
+    }
+
+    static double measure(ExecutorService threadPool, ReaderType readerType, int threads, Class[] keys) throws Exception {
+        AnnotationReader reader = readerType.create(MAXIMUM_SIZE);
+        try {
+            run(threadPool,reader,threads,keys,WARMUP_ITERATIONS);
+            return (double) run(threadPool,reader,threads,keys,ITERATIONS) / ((long) threads * ITERATIONS);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the bytes allocated by all the threads
+     */
+    private static long run(ExecutorService threadPool, final AnnotationReader reader, int threads,
+                            final Class[] keys, final int iterations) throws Exception {
+        List<Future<Long>> futures = new ArrayList<Future<Long>>(threads);
+        for(int i=0;i<threads;i++) {
+            final int offset = i;
+            futures.add(threadPool.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    int consumed = 0;
+                    int index = offset % keys.length;
+                    long startBytes = AllocationMeter.threadAllocatedBytes();
+                    for(int i=0;i<iterations;i++) {
+                        consumed += reader.getAnnotations(keys[index]).length;
+                        if(++index==keys.length) index = 0;
+                    }
+                    long allocatedBytes = AllocationMeter.allocatedSince(startBytes);
+                    sink = consumed;
+                    return allocatedBytes;
+                }
+            }));
+        }
+
+        long allocatedBytes = 0;
+        for(Future<Long> future : futures) allocatedBytes += future.get();
+        return allocatedBytes;
+    }
+}
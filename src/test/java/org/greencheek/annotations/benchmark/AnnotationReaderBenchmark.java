@@ -0,0 +1,90 @@
+package org.greencheek.annotations.benchmark;
+
+import org.greencheek.annotations.service.AnnotationReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the annotations of a set of classes through each AnnotationReader.  The number of
+ * threads is set by AnnotationReaderBenchmarkRunner, or with -t when run through the JMH jar.
+ *
+ * All of the keys are read once before the measurement starts, so that the bounded readers are
+ * measured on hits.  Each reader holds READER_SIZE classes, well above the largest key count: guava splits
+ * its maximum size across its segments, so a cache sized at the key count evicts (and the benchmark
+ * measures misses and loads) once the keys hash unevenly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx512m", "-Xms512m", "-Xmn128m" })
+public class AnnotationReaderBenchmark {
+
+    // 64 entries for each of the CacheBuilder readers' 64 segments; the 1000 keys average under 16 a segment
+    static final int READER_SIZE = 4096;
+
+    // no values, so every ReaderType is run
+    @Param
+    ReaderType readerType;
+
+    @Param({ "1", "100", "1000" })
+    int keyCount;
+
+    Class[] keys;
+    AnnotationReader reader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        keys = BenchmarkKeys.keys(keyCount);
+        reader = readerType.create(READER_SIZE);
+        for(Class key : keys) {
+            reader.getAnnotations(key);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reader.close();
+    }
+
+    /**
+     * Each thread walks the keys from its own starting point
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(AnnotationReaderBenchmark benchmark) {
+            next = ThreadLocalRandom.current().nextInt(benchmark.keys.length);
+        }
+
+        Class nextKey(Class[] keys) {
+            Class key = keys[next];
+            if(++next==keys.length) next = 0;
+            return key;
+        }
+    }
+
+    @Benchmark
+    public void getAnnotations(Cursor cursor, Blackhole blackhole) {
+        blackhole.consume(reader.getAnnotations(cursor.nextKey(keys)));
+    }
+}
@@ -0,0 +1,67 @@
+package org.greencheek.annotations.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs AnnotationReaderBenchmark and SyntheticPopulationBenchmark with 1 to 128 threads, reporting both the throughput
+ * (ops/s) and the average time (ns/op), with the allocation and gc counts of the GCProfiler.
+ *
+ * The thread counts can be given as arguments, i.e. "1 8 64", and the benchmarks' params overridden as with
+ * jmh's own -p, i.e. "1 -p classCount=100,1000 -p readerType=CACHE_BUILDER,WRITE_ORDERED".  Run all of them with:
+ * <pre>
+ *   mvn -Pbenchmark test-compile exec:exec
+ * </pre>
+ */
+public class AnnotationReaderBenchmarkRunner {
+
+    private static final int[] DEFAULT_THREADS = { 1, 2, 4, 8, 16, 32, 64, 128 };
+
+    public static void main(String[] args) throws RunnerException {
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        Map<String,String[]> params = new LinkedHashMap<String,String[]>();
+        for(int i=0;i<args.length;i++) {
+            if(args[i].equals("-p")) {
+                if(++i==args.length || args[i].indexOf('=')<1) {
+                    throw new IllegalArgumentException("-p takes a param and its values, i.e. -p classCount=100,1000");
+                }
+                int equals = args[i].indexOf('=');
+                params.put(args[i].substring(0,equals),args[i].substring(equals+1).split(","));
+            } else {
+                threadCounts.add(Integer.parseInt(args[i]));
+            }
+        }
+        if(threadCounts.isEmpty()) {
+            for(int threads : DEFAULT_THREADS) threadCounts.add(threads);
+        }
+
+        for(int threads : threadCounts) {
+            run(threads,params,Mode.Throughput,TimeUnit.SECONDS);
+            run(threads,params,Mode.AverageTime,TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static void run(int threads, Map<String,String[]> params, Mode mode, TimeUnit timeUnit) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(AnnotationReaderBenchmark.class.getName())
+                .include(SyntheticPopulationBenchmark.class.getName())
+                .threads(threads)
+                .mode(mode)
+                .timeUnit(timeUnit)
+                .addProfiler(GCProfiler.class);
+        for(Map.Entry<String,String[]> param : params.entrySet()) {
+            options.param(param.getKey(),param.getValue());
+        }
+        new Runner(options.build()).run();
+    }
+}
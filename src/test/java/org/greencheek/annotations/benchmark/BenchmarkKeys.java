@@ -0,0 +1,61 @@
+package org.greencheek.annotations.benchmark;
+
+import com.google.common.cache.CacheBuilder;
+import org.greencheek.annotations.domain.ClassWithAnnotations;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The classes that the benchmarks read the annotations of.  A single key is ClassWithAnnotations,
+ * as in RunCachingTest; more keys are taken from the classes of the guava jar, which are loaded
+ * but not initialised.
+ */
+final class BenchmarkKeys {
+
+    private BenchmarkKeys() {}
+
+    static Class[] keys(int keyCount) throws IOException {
+        if(keyCount<1) throw new IllegalArgumentException("keyCount must be greater than 0");
+        if(keyCount==1) return new Class[] { ClassWithAnnotations.class };
+
+        List<Class> keys = new ArrayList<Class>(keyCount);
+        ClassLoader loader = BenchmarkKeys.class.getClassLoader();
+        ZipFile jar = new ZipFile(jarOf(CacheBuilder.class));
+        try {
+            Enumeration<? extends ZipEntry> entries = jar.entries();
+            while(entries.hasMoreElements() && keys.size()<keyCount) {
+                String name = entries.nextElement().getName();
+                if(!name.endsWith(".class")) continue;
+                try {
+                    keys.add(Class.forName(name.substring(0,name.length()-6).replace('/','.'),false,loader));
+                } catch (ClassNotFoundException e) {
+                    // skip
+                } catch (LinkageError e) {
+                    // skip; i.e. refers to an optional dependency that is not on the classpath
+                }
+            }
+        } finally {
+            jar.close();
+        }
+
+        if(keys.size()<keyCount) {
+            throw new IllegalArgumentException("Only " + keys.size() + " classes are available, for a keyCount of " + keyCount);
+        }
+        return keys.toArray(new Class[keys.size()]);
+    }
+
+    private static File jarOf(Class clazz) throws IOException {
+        try {
+            return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+}
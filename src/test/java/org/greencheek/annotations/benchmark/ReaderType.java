@@ -0,0 +1,129 @@
+package org.greencheek.annotations.benchmark;
+
+import org.greencheek.annotations.service.AnnotationReader;
+import org.greencheek.annotations.service.BasicAnnotationReader;
+import org.greencheek.annotations.service.CachingAnnotationReader;
+import org.greencheek.annotations.service.CachingLinkedHashMapAnnotationReader;
+import org.greencheek.annotations.service.ClassLoaderPartitionedAnnotationReader;
+import org.greencheek.annotations.service.ClassValueAnnotationReader;
+import org.greencheek.annotations.service.EveryNthAccessSampler;
+import org.greencheek.annotations.service.StripedReadBufferAnnotationReader;
+import org.greencheek.annotations.service.TinyLfuAdmissionPolicy;
+import org.greencheek.annotations.service.WriteOrderedAnnotationReader;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The AnnotationReader implementations, and the configurations of them, that are benchmarked.
+ */
+public enum ReaderType {
+    GET_ANNOTATIONS {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new BasicAnnotationReader();
+        }
+    },
+    CACHE_BUILDER {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new CachingAnnotationReader.Builder().maximumSize(maximumSize).build();
+        }
+    },
+    CACHE_BUILDER_STATS {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new CachingAnnotationReader.Builder().maximumSize(maximumSize).recordStats().build();
+        }
+    },
+    CACHE_BUILDER_SAMPLED {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new CachingAnnotationReader.Builder().maximumSize(maximumSize)
+                    .accessSampler(new EveryNthAccessSampler(16)).build();
+        }
+    },
+    CACHE_BUILDER_BACKPRESSURE {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new CachingAnnotationReader.Builder().maximumSize(maximumSize)
+                    .backpressure(100000,10000).build();
+        }
+    },
+    CACHE_BUILDER_REFRESH {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new CachingAnnotationReader.Builder().maximumSize(maximumSize)
+                    .refreshAfterWrite(8, TimeUnit.SECONDS).build();
+        }
+    },
+    LINKED_CACHE_BUILDER {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new CachingLinkedHashMapAnnotationReader.Builder().maximumWeightedCapacity(maximumSize).build();
+        }
+    },
+    LINKED_CACHE_BUILDER_STATS {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new CachingLinkedHashMapAnnotationReader.Builder().maximumWeightedCapacity(maximumSize)
+                    .recordStats().build();
+        }
+    },
+    LINKED_CACHE_BUILDER_BACKPRESSURE {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new CachingLinkedHashMapAnnotationReader.Builder().maximumWeightedCapacity(maximumSize)
+                    .backpressure(100000,10000).build();
+        }
+    },
+    LINKED_CACHE_BUILDER_TINYLFU {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new CachingLinkedHashMapAnnotationReader.Builder().maximumWeightedCapacity(maximumSize)
+                    .admissionPolicy(new TinyLfuAdmissionPolicy(maximumSize)).build();
+        }
+    },
+    STRIPED_READ_BUFFER {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new StripedReadBufferAnnotationReader(maximumSize);
+        }
+    },
+    STRIPED_READ_BUFFER_STATS {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return StripedReadBufferAnnotationReader.withStats(maximumSize);
+        }
+    },
+    CLASS_VALUE {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new ClassValueAnnotationReader();
+        }
+    },
+    CLASS_LOADER_PARTITIONED {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new ClassLoaderPartitionedAnnotationReader(maximumSize);
+        }
+    },
+    WRITE_ORDERED {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new WriteOrderedAnnotationReader.Builder().maximumSize(maximumSize)
+                    .expireAfterWrite(10, TimeUnit.SECONDS).build();
+        }
+    },
+    WRITE_ORDERED_STATS {
+        @Override
+        public AnnotationReader create(int maximumSize) {
+            return new WriteOrderedAnnotationReader.Builder().maximumSize(maximumSize)
+                    .expireAfterWrite(10, TimeUnit.SECONDS).recordStats().build();
+        }
+    };
+
+    /**
+     * @param maximumSize the number of classes a bounded reader holds
+     */
+    public abstract AnnotationReader create(int maximumSize);
+}
@@ -0,0 +1,133 @@
+package org.greencheek.annotations.benchmark;
+
+import org.greencheek.annotations.service.AnnotationReader;
+import org.greencheek.annotations.synthetic.AttributeShape;
+import org.greencheek.annotations.synthetic.KeyDistribution;
+import org.greencheek.annotations.synthetic.SyntheticClassPopulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a SyntheticClassPopulation through each AnnotationReader, with a working set from well
+ * under to well over the readers' maximum size of MAXIMUM_SIZE, so that how each reader scales
+ * with the number of keys, and how it behaves once they no longer fit, can be compared.
+ *
+ * The reads follow a KeyDistribution, with missRatio of them replaced by reads of MISS_KEY_COUNT
+ * further classes in turn, that are always misses for the bounded readers.  The classes, and the
+ * sequence of reads, are generated before the trial.
+ *
+ * The defaults are a representative few, 20 trials of about 15 seconds each: the Guava and
+ * ConcurrentLinkedHashMap readers, the latter with and without admission, the striped read buffer, and
+ * the unbounded ClassValue reader as the baseline; a working set that fits and one that does not; and
+ * zipfian reads, and a scan over a hot set.  Every combination would be 384 trials (about an hour and a
+ * half, for each thread count and mode), so widen only the params being compared, with -p given to
+ * AnnotationReaderBenchmarkRunner (or jmh's own Main); i.e. the cost of stats at every size, on one thread:
+ * <pre>
+ *   1 -p readerType=CACHE_BUILDER,CACHE_BUILDER_STATS,WRITE_ORDERED,WRITE_ORDERED_STATS -p classCount=100,1000,10000,100000
+ * </pre>
+ * or the full sweep, with the readerType values listed as in ReaderType:
+ * <pre>
+ *   -p readerType=GET_ANNOTATIONS,CACHE_BUILDER,...,WRITE_ORDERED_STATS -p classCount=100,1000,10000,100000
+ *   -p distribution=UNIFORM,ZIPFIAN,SCAN_HOT_SET -p missRatio=0,0.05
+ * </pre>
+ * Larger populations can be given with i.e. -p classCount=1000000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx512m", "-Xms512m", "-Xmn128m" })
+public class SyntheticPopulationBenchmark {
+
+    static final int MAXIMUM_SIZE = 1000;
+    static final int MISS_KEY_COUNT = 4 * MAXIMUM_SIZE;
+    static final int READ_SEQUENCE_LENGTH = 1 << 20;
+
+    @Param({ "CACHE_BUILDER", "LINKED_CACHE_BUILDER", "LINKED_CACHE_BUILDER_TINYLFU", "STRIPED_READ_BUFFER", "CLASS_VALUE" })
+    ReaderType readerType;
+
+    @Param({ "100", "10000" })
+    int classCount;
+
+    @Param({ "ZIPFIAN", "SCAN_HOT_SET" })
+    KeyDistribution distribution;
+
+    @Param({ "0.05" })
+    double missRatio;
+
+    @Param({ "2" })
+    int annotationsPerClass;
+
+    @Param({ "SCALAR" })
+    AttributeShape attributeShape;
+
+    Class[] reads;
+    AnnotationReader reader;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticClassPopulation population = new SyntheticClassPopulation.Builder()
+                .classCount(classCount + MISS_KEY_COUNT)
+                .annotationTypeCount(Math.max(8,annotationsPerClass))
+                .annotationsPerClass(annotationsPerClass)
+                .attributeShape(attributeShape)
+                .build();
+
+        Random random = new Random(classCount);
+        int[] ids = distribution.generate(classCount,READ_SEQUENCE_LENGTH,random);
+        ids = KeyDistribution.withMisses(ids,missRatio,classCount,MISS_KEY_COUNT,random);
+        reads = population.classesFor(ids);
+
+        reader = readerType.create(MAXIMUM_SIZE);
+        for(Class key : reads) {
+            reader.getAnnotations(key);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reader.close();
+        reads = null;
+    }
+
+    /**
+     * Each thread follows the read sequence from its own starting point
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(SyntheticPopulationBenchmark benchmark) {
+            next = ThreadLocalRandom.current().nextInt(benchmark.reads.length);
+        }
+
+        Class nextKey(Class[] reads) {
+            Class key = reads[next];
+            if(++next==reads.length) next = 0;
+            return key;
+        }
+    }
+
+    @Benchmark
+    public void getAnnotations(Cursor cursor, Blackhole blackhole) {
+        blackhole.consume(reader.getAnnotations(cursor.nextKey(reads)));
+    }
+}
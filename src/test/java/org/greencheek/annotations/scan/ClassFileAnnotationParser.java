@@ -0,0 +1,242 @@
+package org.greencheek.annotations.scan;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the class name, super class name and the types of the runtime visible annotations
+ * declared on a class, straight from the bytes of its class file; without loading the class.
+ *
+ * Only the constant pool and the class's own attributes are looked at; fields and methods
+ * are skipped over.  Annotations inherited through @Inherited are not resolved, as that
+ * would need the super class's class file.
+ *
+ * A parser reuses its constant pool offset table between class files, so it is not thread
+ * safe; use one per thread.
+ */
+public class ClassFileAnnotationParser {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final byte[] RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations".getBytes(Charset.forName("US-ASCII"));
+
+    // offset in the buffer of each constant pool entry's tag
+    private int[] constantOffsets = new int[1024];
+    private char[] chars = new char[256];
+
+    /**
+     * Parses the class file held between the buffer's position and limit.  The buffer's
+     * position is not changed.
+     *
+     * @return the parsed class, or null if the buffer does not hold a class file
+     */
+    public ScannedClass parse(ByteBuffer classFile) {
+        ByteBuffer buf = classFile.duplicate();
+        int base = buf.position();
+
+        if(buf.remaining()<10 || buf.getInt(base)!=MAGIC) return null;
+
+        int constantCount = buf.getShort(base + 8) & 0xFFFF;
+        if(constantOffsets.length<constantCount) {
+            constantOffsets = new int[Math.max(constantCount,constantOffsets.length*2)];
+        }
+
+        int offset = base + 10;
+        for(int i=1;i<constantCount;i++) {
+            constantOffsets[i] = offset;
+            int tag = buf.get(offset) & 0xFF;
+            switch (tag) {
+                case CONSTANT_UTF8:
+                    offset += 3 + (buf.getShort(offset+1) & 0xFFFF);
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    offset += 3;
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    offset += 4;
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    offset += 5;
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    // takes two entries in the pool
+                    offset += 9;
+                    i++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + tag + " at offset " + offset);
+            }
+        }
+
+        // access_flags, this_class, super_class
+        String className = internalToBinaryName(classNameAt(buf,buf.getShort(offset+2) & 0xFFFF));
+        int superIndex = buf.getShort(offset+4) & 0xFFFF;
+        String superClassName = superIndex==0 ? null : internalToBinaryName(classNameAt(buf,superIndex));
+        offset += 6;
+
+        int interfaces = buf.getShort(offset) & 0xFFFF;
+        offset += 2 + (interfaces * 2);
+
+        offset = skipMembers(buf,offset);  // fields
+        offset = skipMembers(buf,offset);  // methods
+
+        List<String> annotationTypes = new ArrayList<String>(4);
+        int attributes = buf.getShort(offset) & 0xFFFF;
+        offset += 2;
+        for(int i=0;i<attributes;i++) {
+            int nameIndex = buf.getShort(offset) & 0xFFFF;
+            int length = buf.getInt(offset+2);
+            if(utf8Equals(buf,nameIndex,RUNTIME_VISIBLE_ANNOTATIONS)) {
+                readAnnotationTypes(buf,offset+6,annotationTypes);
+            }
+            offset += 6 + length;
+        }
+
+        return new ScannedClass(className,superClassName,annotationTypes.toArray(new String[annotationTypes.size()]));
+    }
+
+    private int skipMembers(ByteBuffer buf, int offset) {
+        int count = buf.getShort(offset) & 0xFFFF;
+        offset += 2;
+        for(int i=0;i<count;i++) {
+            // access_flags, name_index, descriptor_index
+            offset += 6;
+            int attributes = buf.getShort(offset) & 0xFFFF;
+            offset += 2;
+            for(int j=0;j<attributes;j++) {
+                offset += 6 + buf.getInt(offset+2);
+            }
+        }
+        return offset;
+    }
+
+    private void readAnnotationTypes(ByteBuffer buf, int offset, List<String> annotationTypes) {
+        int annotations = buf.getShort(offset) & 0xFFFF;
+        offset += 2;
+        for(int i=0;i<annotations;i++) {
+            annotationTypes.add(descriptorToBinaryName(utf8At(buf,buf.getShort(offset) & 0xFFFF)));
+            offset = skipAnnotation(buf,offset);
+        }
+    }
+
+    private int skipAnnotation(ByteBuffer buf, int offset) {
+        // type_index
+        offset += 2;
+        int pairs = buf.getShort(offset) & 0xFFFF;
+        offset += 2;
+        for(int i=0;i<pairs;i++) {
+            // element_name_index
+            offset = skipElementValue(buf,offset+2);
+        }
+        return offset;
+    }
+
+    private int skipElementValue(ByteBuffer buf, int offset) {
+        int tag = buf.get(offset) & 0xFF;
+        offset++;
+        switch (tag) {
+            case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's': case 'c':
+                return offset + 2;
+            case 'e':
+                return offset + 4;
+            case '@':
+                return skipAnnotation(buf,offset);
+            case '[':
+                int values = buf.getShort(offset) & 0xFFFF;
+                offset += 2;
+                for(int i=0;i<values;i++) {
+                    offset = skipElementValue(buf,offset);
+                }
+                return offset;
+            default:
+                throw new IllegalArgumentException("Unknown element value tag " + (char)tag + " at offset " + (offset-1));
+        }
+    }
+
+    private String classNameAt(ByteBuffer buf, int classIndex) {
+        return utf8At(buf,buf.getShort(constantOffsets[classIndex]+1) & 0xFFFF);
+    }
+
+    private boolean utf8Equals(ByteBuffer buf, int utf8Index, byte[] expected) {
+        int offset = constantOffsets[utf8Index];
+        int length = buf.getShort(offset+1) & 0xFFFF;
+        if(length!=expected.length) return false;
+        offset += 3;
+        for(int i=0;i<length;i++) {
+            if(buf.get(offset+i)!=expected[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the modified UTF-8 constant at the given index
+     */
+    private String utf8At(ByteBuffer buf, int utf8Index) {
+        int offset = constantOffsets[utf8Index];
+        int length = buf.getShort(offset+1) & 0xFFFF;
+        offset += 3;
+        int end = offset + length;
+
+        if(chars.length<length) chars = new char[Math.max(length,chars.length*2)];
+        int count = 0;
+        while(offset<end) {
+            int b = buf.get(offset++) & 0xFF;
+            if(b<0x80) {
+                chars[count++] = (char) b;
+            } else if((b & 0xE0)==0xC0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (buf.get(offset++) & 0x3F));
+            } else {
+                int b2 = buf.get(offset++) & 0x3F;
+                int b3 = buf.get(offset++) & 0x3F;
+                chars[count++] = (char) (((b & 0x0F) << 12) | (b2 << 6) | b3);
+            }
+        }
+        return new String(chars,0,count);
+    }
+
+    private static String internalToBinaryName(String internalName) {
+        return internalName.replace('/','.');
+    }
+
+    /**
+     * Lcom/foo/Bar; to com.foo.Bar
+     */
+    private static String descriptorToBinaryName(String descriptor) {
+        if(descriptor.length()>2 && descriptor.charAt(0)=='L' && descriptor.charAt(descriptor.length()-1)==';') {
+            return internalToBinaryName(descriptor.substring(1,descriptor.length()-1));
+        }
+        return descriptor;
+    }
+}
@@ -0,0 +1,482 @@
+package org.greencheek.annotations.scan;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Scans directories and jars for class files, in parallel, and reads the annotation types
+ * declared on each class with a ClassFileAnnotationParser.  No class is loaded.
+ *
+ * Each directory and jar is split into one slice per thread.  Jars are memory mapped, and their
+ * central directory read once, on the calling thread; then each thread parses its slice of the
+ * jar's class files straight from the mapping, inflating the compressed ones into its own reusable
+ * buffer.  The files of a directory are read into that buffer, rather than mapped: mapping a class
+ * file of a few KB costs more than reading it, and a mapping is only released when it's garbage
+ * collected.  Jars the mapping can't read (zip64, or over 2GB) are read with a ZipFile, by one thread.
+ */
+public class ClassPathAnnotationScanner {
+
+    private static Logger log = LoggerFactory.getLogger(ClassPathAnnotationScanner.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int threads;
+
+    private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        ClassPathAnnotationScanner scanner = new ClassPathAnnotationScanner();
+        long start = System.nanoTime();
+        ScannedAnnotationIndex index = scanner.scanClassPath();
+        long end = System.nanoTime();
+        log.info("Scanned {} classes in {} ms",index.size(),TimeUnit.NANOSECONDS.toMillis(end-start));
+    }
+
+    public ClassPathAnnotationScanner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ClassPathAnnotationScanner(int threads) {
+        if(threads<1) throw new IllegalArgumentException("threads must be greater than 0");
+        this.threads = threads;
+    }
+
+    /**
+     * Scans the entries of the java.class.path system property
+     */
+    public ScannedAnnotationIndex scanClassPath() throws IOException, InterruptedException {
+        List<File> roots = new ArrayList<File>();
+        for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if(entry.length()>0) roots.add(new File(entry));
+        }
+        return scan(roots);
+    }
+
+    /**
+     * Scans the directories and jars, in class path order; a class found in more than one of them
+     * is taken from the first
+     */
+    public ScannedAnnotationIndex scan(List<File> roots) throws IOException, InterruptedException {
+        ScannedAnnotationIndex index = new ScannedAnnotationIndex();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+        for(int classPathIndex=0;classPathIndex<roots.size();classPathIndex++) {
+            File root = roots.get(classPathIndex);
+            if(root.isDirectory()) {
+                List<Path> classFiles = findClassFiles(root.toPath());
+                for(int slice=0;slice<threads;slice++) {
+                    tasks.add(new DirectorySliceTask(classFiles,slice,classPathIndex,index));
+                }
+            } else if(root.isFile()) {
+                MappedJar jar = MappedJar.map(root);
+                if(jar==null) {
+                    tasks.add(new JarTask(root,classPathIndex,index));
+                } else {
+                    for(int slice=0;slice<threads;slice++) {
+                        tasks.add(new MappedJarSliceTask(jar,slice,classPathIndex,index));
+                    }
+                }
+            }
+        }
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+        try {
+            for(Future<Void> future : threadPool.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            threadPool.shutdownNow();
+        }
+
+        index.complete();
+        return index;
+    }
+
+    private static List<Path> findClassFiles(Path root) throws IOException {
+        final List<Path> classFiles = new ArrayList<Path>();
+        Files.walkFileTree(root,new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if(attrs.isRegularFile() && file.getFileName().toString().endsWith(".class")) {
+                    classFiles.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return classFiles;
+    }
+
+    private class DirectorySliceTask implements Callable<Void> {
+        private final List<Path> classFiles;
+        private final int slice;
+        private final int classPathIndex;
+        private final ScannedAnnotationIndex index;
+
+        DirectorySliceTask(List<Path> classFiles, int slice, int classPathIndex, ScannedAnnotationIndex index) {
+            this.classFiles = classFiles;
+            this.slice = slice;
+            this.classPathIndex = classPathIndex;
+            this.index = index;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            Worker worker = workers.get();
+            for(int i=slice;i<classFiles.size();i+=threads) {
+                Path classFile = classFiles.get(i);
+                FileChannel channel = FileChannel.open(classFile,StandardOpenOption.READ);
+                try {
+                    worker.parse(classFile.toString(),worker.read(channel),classPathIndex,index);
+                } finally {
+                    channel.close();
+                }
+            }
+            return null;
+        }
+    }
+
+    private class MappedJarSliceTask implements Callable<Void> {
+        private final MappedJar jar;
+        private final int slice;
+        private final int classPathIndex;
+        private final ScannedAnnotationIndex index;
+
+        MappedJarSliceTask(MappedJar jar, int slice, int classPathIndex, ScannedAnnotationIndex index) {
+            this.jar = jar;
+            this.slice = slice;
+            this.classPathIndex = classPathIndex;
+            this.index = index;
+        }
+
+        @Override
+        public Void call() {
+            Worker worker = workers.get();
+            int[] classEntries = jar.classEntries;
+            for(int i=slice;i<classEntries.length;i+=threads) {
+                ByteBuffer classFile = worker.read(jar,classEntries[i]);
+                if(classFile==null) {
+                    log.debug("Unable to read {} from {}",jar.name(classEntries[i]),jar.file);
+                    continue;
+                }
+                worker.parse(classEntries[i],jar,classFile,classPathIndex,index);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the whole of a jar that could not be mapped
+     */
+    private class JarTask implements Callable<Void> {
+        private final File jar;
+        private final int classPathIndex;
+        private final ScannedAnnotationIndex index;
+
+        JarTask(File jar, int classPathIndex, ScannedAnnotationIndex index) {
+            this.jar = jar;
+            this.classPathIndex = classPathIndex;
+            this.index = index;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            Worker worker = workers.get();
+            ZipFile zip;
+            try {
+                zip = new ZipFile(jar);
+            } catch (IOException e) {
+                log.debug("Skipping {}, not a jar: {}",jar,e.getMessage());
+                return null;
+            }
+
+            try {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while(entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if(entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+
+                    InputStream in = zip.getInputStream(entry);
+                    try {
+                        worker.parse(entry.getName(),worker.read(in,entry.getSize()),classPathIndex,index);
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                zip.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A jar mapped into memory, and the offsets of its class files' headers in the jar's central directory.
+     * The mapping is only read with absolute gets and from duplicates, so is shared by the threads scanning the jar.
+     */
+    private static final class MappedJar {
+        private static final int END_SIGNATURE = 0x06054b50;
+        private static final int CENTRAL_SIGNATURE = 0x02014b50;
+        private static final int LOCAL_SIGNATURE = 0x04034b50;
+        private static final int END_LENGTH = 22;
+        private static final int CENTRAL_LENGTH = 46;
+        private static final int LOCAL_LENGTH = 30;
+        private static final int MAXIMUM_COMMENT_LENGTH = 0xFFFF;
+        private static final int ZIP64_ENTRIES = 0xFFFF;
+        private static final long ZIP64_OFFSET = 0xFFFFFFFFL;
+        private static final byte[] CLASS_SUFFIX = {'.','c','l','a','s','s'};
+
+        static final int STORED = 0;
+        static final int DEFLATED = 8;
+        static final int ENCRYPTED = 1;
+
+        final File file;
+        final ByteBuffer mapped;
+        final int[] classEntries;
+
+        private MappedJar(File file, ByteBuffer mapped, int[] classEntries) {
+            this.file = file;
+            this.mapped = mapped;
+            this.classEntries = classEntries;
+        }
+
+        /**
+         * @return the mapped jar, or null if it is not a jar that can be read from a mapping
+         */
+        static MappedJar map(File file) throws IOException {
+            if(file.length()<END_LENGTH || file.length()>Integer.MAX_VALUE) return null;
+
+            ByteBuffer mapped;
+            FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            } finally {
+                channel.close();
+            }
+
+            int end = -1;
+            for(int i=mapped.limit()-END_LENGTH;i>=Math.max(0,mapped.limit()-END_LENGTH-MAXIMUM_COMMENT_LENGTH);i--) {
+                if(mapped.getInt(i)==END_SIGNATURE) {
+                    end = i;
+                    break;
+                }
+            }
+            if(end==-1) return null;
+
+            int entries = unsignedShort(mapped,end+10);
+            long centralDirectory = unsignedInt(mapped,end+16);
+            if(entries==ZIP64_ENTRIES || centralDirectory==ZIP64_OFFSET || centralDirectory>end) return null;
+
+            int[] classEntries = new int[entries];
+            int classes = 0;
+            int offset = (int) centralDirectory;
+            for(int i=0;i<entries;i++) {
+                if(offset+CENTRAL_LENGTH>end || mapped.getInt(offset)!=CENTRAL_SIGNATURE) return null;
+                int nameLength = unsignedShort(mapped,offset+28);
+                if(isClassFile(mapped,offset+CENTRAL_LENGTH,nameLength)) classEntries[classes++] = offset;
+                offset += CENTRAL_LENGTH + nameLength + unsignedShort(mapped,offset+30) + unsignedShort(mapped,offset+32);
+            }
+
+            int[] trimmed = new int[classes];
+            System.arraycopy(classEntries,0,trimmed,0,classes);
+            return new MappedJar(file,mapped,trimmed);
+        }
+
+        private static boolean isClassFile(ByteBuffer mapped, int name, int nameLength) {
+            if(nameLength<=CLASS_SUFFIX.length) return false;
+            int suffix = name + nameLength - CLASS_SUFFIX.length;
+            for(int i=0;i<CLASS_SUFFIX.length;i++) {
+                if(mapped.get(suffix+i)!=CLASS_SUFFIX[i]) return false;
+            }
+            return true;
+        }
+
+        private static int unsignedShort(ByteBuffer buffer, int offset) {
+            return buffer.getShort(offset) & 0xFFFF;
+        }
+
+        private static long unsignedInt(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset) & 0xFFFFFFFFL;
+        }
+
+        int flags(int entry) {
+            return unsignedShort(mapped,entry+8);
+        }
+
+        int method(int entry) {
+            return unsignedShort(mapped,entry+10);
+        }
+
+        long compressedSize(int entry) {
+            return unsignedInt(mapped,entry+20);
+        }
+
+        long size(int entry) {
+            return unsignedInt(mapped,entry+24);
+        }
+
+        /**
+         * @return the offset of the entry's data, or -1 if its local header is not where the central directory says
+         */
+        long dataOffset(int entry) {
+            long local = unsignedInt(mapped,entry+42);
+            if(local+LOCAL_LENGTH>mapped.limit() || mapped.getInt((int)local)!=LOCAL_SIGNATURE) return -1;
+            return local + LOCAL_LENGTH + unsignedShort(mapped,(int)local+26) + unsignedShort(mapped,(int)local+28);
+        }
+
+        String name(int entry) {
+            byte[] name = new byte[unsignedShort(mapped,entry+28)];
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position(entry+CENTRAL_LENGTH);
+            buffer.get(name);
+            return new String(name,UTF_8);
+        }
+    }
+
+    /**
+     * A thread's parser and read buffers
+     */
+    private static class Worker {
+        private final ClassFileAnnotationParser parser = new ClassFileAnnotationParser();
+        private final Inflater inflater = new Inflater(true);
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        // the compressed bytes of a class file, copied out of a mapping for the inflater
+        private byte[] compressed = new byte[16 * 1024];
+
+        ByteBuffer read(FileChannel channel) throws IOException {
+            ensureCapacity(channel.size(),0);
+            buffer.clear();
+            while(channel.read(buffer)>=0 && buffer.hasRemaining()) {}
+            buffer.flip();
+            return buffer;
+        }
+
+        ByteBuffer read(InputStream in, long size) throws IOException {
+            ensureCapacity(size,0);
+            byte[] bytes = buffer.array();
+            int length = 0;
+            int read;
+            while((read = in.read(bytes,length,bytes.length-length))!=-1) {
+                length += read;
+                if(length==bytes.length) {
+                    // size was unknown, and the buffer is full
+                    ensureCapacity(bytes.length * 2L,length);
+                    bytes = buffer.array();
+                }
+            }
+            buffer.clear();
+            buffer.limit(length);
+            return buffer;
+        }
+
+        /**
+         * A stored class file is returned as a slice of the mapping; a compressed one is inflated into the buffer.
+         *
+         * @return the class file, or null if the entry can't be read
+         */
+        ByteBuffer read(MappedJar jar, int entry) {
+            long data = jar.dataOffset(entry);
+            long compressedSize = jar.compressedSize(entry);
+            long size = jar.size(entry);
+            if(data<0 || data+compressedSize>jar.mapped.limit() || (jar.flags(entry) & MappedJar.ENCRYPTED)!=0) return null;
+
+            if(jar.method(entry)==MappedJar.STORED) {
+                ByteBuffer classFile = jar.mapped.duplicate();
+                classFile.limit((int)(data+size));
+                classFile.position((int)data);
+                return classFile;
+            }
+            if(jar.method(entry)!=MappedJar.DEFLATED) return null;
+
+            // without a zlib header the inflater needs a byte past the end of the data, as ZipFile gives it
+            if(compressedSize+1>compressed.length) compressed = new byte[(int)Math.max(compressedSize+1,compressed.length*2L)];
+            ByteBuffer source = jar.mapped.duplicate();
+            source.position((int)data);
+            source.get(compressed,0,(int)compressedSize);
+            compressed[(int)compressedSize] = 0;
+
+            ensureCapacity(size,0);
+            byte[] bytes = buffer.array();
+            int length = 0;
+            inflater.reset();
+            inflater.setInput(compressed,0,(int)compressedSize+1);
+            try {
+                while(length<size && !inflater.finished()) {
+                    int inflated = inflater.inflate(bytes,length,(int)size-length);
+                    if(inflated==0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                return null;
+            }
+            if(length!=size) return null;
+
+            buffer.clear();
+            buffer.limit(length);
+            return buffer;
+        }
+
+        /**
+         * Grows the buffer, keeping the first 'keep' bytes
+         */
+        private void ensureCapacity(long size, int keep) {
+            if(size>buffer.capacity()) {
+                ByteBuffer grown = ByteBuffer.allocate((int)Math.max(size,buffer.capacity()*2L));
+                System.arraycopy(buffer.array(),0,grown.array(),0,keep);
+                buffer = grown;
+            }
+        }
+
+        /**
+         * Parses a class file read from a mapped jar; its name is only read if it can't be parsed
+         */
+        void parse(int entry, MappedJar jar, ByteBuffer classFile, int classPathIndex, ScannedAnnotationIndex index) {
+            try {
+                ScannedClass scannedClass = parser.parse(classFile);
+                if(scannedClass!=null) index.add(scannedClass,classPathIndex);
+            } catch (RuntimeException e) {
+                log.debug("Unable to parse class file {} in {}: {}",jar.name(entry),jar.file,e.toString());
+            }
+        }
+
+        void parse(String name, ByteBuffer classFile, int classPathIndex, ScannedAnnotationIndex index) {
+            try {
+                ScannedClass scannedClass = parser.parse(classFile);
+                if(scannedClass!=null) index.add(scannedClass,classPathIndex);
+            } catch (RuntimeException e) {
+                log.debug("Unable to parse class file {}: {}",name,e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.greencheek.annotations.scan;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The result of a class path scan: the annotation type names declared on each class,
+ * and the reverse, the names of the classes declaring each annotation type.
+ *
+ * When a class is found in more than one class path entry, the one in the earliest
+ * entry is kept, as the class loader would load it; whichever order the entries'
+ * scans happen to finish in.
+ */
+public class ScannedAnnotationIndex {
+
+    // while scanning
+    private final ConcurrentMap<String,Found> found = new ConcurrentHashMap<String,Found>(4096,0.75f,64);
+    // once the scan has completed
+    private volatile Map<String,ScannedClass> classes;
+    private volatile Map<String,List<String>> annotatedClasses;
+
+    /**
+     * @param classPathIndex the position, in the class path, of the entry the class was found in
+     */
+    void add(ScannedClass scannedClass, int classPathIndex) {
+        Found candidate = new Found(scannedClass,classPathIndex);
+        Found existing = found.putIfAbsent(scannedClass.getClassName(),candidate);
+        while(existing!=null && classPathIndex<existing.classPathIndex) {
+            if(found.replace(scannedClass.getClassName(),existing,candidate)) return;
+            existing = found.putIfAbsent(scannedClass.getClassName(),candidate);
+        }
+    }
+
+    /**
+     * Builds the reverse index, once the scan has finished
+     */
+    void complete() {
+        Map<String,ScannedClass> scanned = new HashMap<String,ScannedClass>(found.size()*2);
+        for(Map.Entry<String,Found> entry : found.entrySet()) {
+            scanned.put(entry.getKey(),entry.getValue().scannedClass);
+        }
+        found.clear();
+
+        Map<String,List<String>> reverse = new HashMap<String,List<String>>();
+        for(ScannedClass scannedClass : scanned.values()) {
+            for(String annotationTypeName : scannedClass.getAnnotationTypeNames()) {
+                List<String> classNames = reverse.get(annotationTypeName);
+                if(classNames==null) {
+                    classNames = new ArrayList<String>();
+                    reverse.put(annotationTypeName,classNames);
+                }
+                classNames.add(scannedClass.getClassName());
+            }
+        }
+        annotatedClasses = reverse;
+        classes = scanned;
+    }
+
+    public int size() {
+        return classes.size();
+    }
+
+    /**
+     * @return the scanned class, or null if the class was not found by the scan
+     */
+    public ScannedClass getScannedClass(String className) {
+        return classes.get(className);
+    }
+
+    public Collection<ScannedClass> getScannedClasses() {
+        return Collections.unmodifiableCollection(classes.values());
+    }
+
+    /**
+     * @return the names of the classes that declare the given annotation type
+     */
+    public List<String> classesAnnotatedWith(String annotationTypeName) {
+        List<String> classNames = annotatedClasses.get(annotationTypeName);
+        return classNames==null ? Collections.<String>emptyList() : Collections.unmodifiableList(classNames);
+    }
+
+    private static final class Found {
+        final ScannedClass scannedClass;
+        final int classPathIndex;
+
+        Found(ScannedClass scannedClass, int classPathIndex) {
+            this.scannedClass = scannedClass;
+            this.classPathIndex = classPathIndex;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.greencheek.annotations.scan;
+
+/**
+ * The names of a class, its super class, and the annotation types declared on it,
+ * as read from its class file.
+ */
+public class ScannedClass {
+    private final String className;
+    private final String superClassName;
+    private final String[] annotationTypeNames;
+
+    public ScannedClass(String className, String superClassName, String[] annotationTypeNames) {
+        this.className = className;
+        this.superClassName = superClassName;
+        this.annotationTypeNames = annotationTypeNames;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the super class's name, or null for java.lang.Object
+     */
+    public String getSuperClassName() {
+        return superClassName;
+    }
+
+    public String[] getAnnotationTypeNames() {
+        return annotationTypeNames;
+    }
+
+    public boolean hasAnnotation(String annotationTypeName) {
+        for(String name : annotationTypeNames) {
+            if(name.equals(annotationTypeName)) return true;
+        }
+        return false;
+    }
+}
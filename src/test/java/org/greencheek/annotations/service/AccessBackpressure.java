@@ -0,0 +1,98 @@
+package org.greencheek.annotations.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stops a reader recording its hits when its pending accesses are not being drained, so that the backlog
+ * (and the heap it takes) is bounded, as the patched ConcurrentLinkedHashMap's 1<<10 buffers bound it;
+ * without rebuilding the library.
+ *
+ * While recording, on average every CHECK_INTERVAL'th hit counts the reader's pending accesses.  Recording
+ * stops when they pass the high water mark, or when they have not fallen to the low water mark for longer
+ * than the maximum drain lag.  Hits are then served without touching the eviction order (the reader is a
+ * concurrent map in front of its cache), and the checks drain the cache instead, until the pending accesses
+ * are back at the low water mark; at which point recording starts again.
+ *
+ * One thread checks at a time; the others carry on in the current mode.
+ */
+final class AccessBackpressure {
+
+    static final int CHECK_INTERVAL = 64;
+
+    private static Logger log = LoggerFactory.getLogger(AccessBackpressure.class);
+
+    private final String readerName;
+    private final PendingAccesses pendingAccesses;
+    // runs the cache's maintenance, applying the pending accesses
+    private final Runnable drain;
+    private final long highWaterMark;
+    private final long lowWaterMark;
+    private final long maximumDrainLagNanos;
+
+    private final AtomicBoolean checking = new AtomicBoolean();
+    private volatile boolean recording = true;
+
+    // guarded by checking
+    private long caughtUpAt = System.nanoTime();
+    private long readOnlyAt;
+
+    AccessBackpressure(String readerName, PendingAccesses pendingAccesses, Runnable drain,
+                       long highWaterMark, long lowWaterMark, long maximumDrainLagNanos) {
+        this.readerName = readerName;
+        this.pendingAccesses = pendingAccesses;
+        this.drain = drain;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+        this.maximumDrainLagNanos = maximumDrainLagNanos;
+    }
+
+    /**
+     * Called on each hit; false when the hit should not be recorded
+     */
+    boolean shouldRecord() {
+        if(ThreadLocalRandom.current().nextInt(CHECK_INTERVAL)==0 && checking.compareAndSet(false,true)) {
+            try {
+                check();
+            } finally {
+                checking.set(false);
+            }
+        }
+        return recording;
+    }
+
+    boolean isRecording() {
+        return recording;
+    }
+
+    // guarded by checking
+    private void check() {
+        long now = System.nanoTime();
+        if(recording) {
+            long pending = pendingAccesses.count();
+            if(pending<0) return;
+
+            if(pending<=lowWaterMark) {
+                caughtUpAt = now;
+            } else if(pending>highWaterMark || now - caughtUpAt > maximumDrainLagNanos) {
+                recording = false;
+                readOnlyAt = now;
+                log.warn("{} has {} pending accesses, {}ms since it was last drained; no longer recording hits",
+                        readerName,pending,(now - caughtUpAt) / 1000000);
+                drain.run();
+            }
+        } else {
+            drain.run();
+            long pending = pendingAccesses.count();
+            if(pending<=lowWaterMark) {
+                caughtUpAt = now;
+                recording = true;
+                log.info("{} drained to {} pending accesses, after {}ms; recording hits again",
+                        readerName,pending,(now - readOnlyAt) / 1000000);
+            }
+        }
+    }
+}
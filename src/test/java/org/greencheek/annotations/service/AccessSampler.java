@@ -0,0 +1,11 @@
+package org.greencheek.annotations.service;
+
+/**
+ * Decides whether a cache hit should be recorded against the cache's eviction policy.
+ *
+ * Implementations are called on every hit, so they must not share any mutable state
+ * between threads.
+ */
+public interface AccessSampler {
+    boolean shouldRecord();
+}
@@ -0,0 +1,18 @@
+package org.greencheek.annotations.service;
+
+/**
+ * Decides whether a new entry is allowed into a full cache, at the expense of the entry
+ * the cache would evict to make room for it.
+ */
+public interface AdmissionPolicy {
+
+    /**
+     * Called on every access to the cache, hit or miss
+     */
+    void record(Object key);
+
+    /**
+     * @return true if the candidate should replace the victim
+     */
+    boolean admit(Object candidate, Object victim);
+}
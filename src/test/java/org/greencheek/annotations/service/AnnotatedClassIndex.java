@@ -0,0 +1,239 @@
+package org.greencheek.annotations.service;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reverse index of annotation type to the classes, seen so far, that carry it.
+ *
+ * Each annotation type has a bitmap of class ids (see ClassIds), so "which classes have X"
+ * and "X and Y but not Z" are answered by and-ing words of a few bitmaps, rather than by
+ * reflecting over every class again.  A class that has been unloaded is skipped when the
+ * results are turned back into classes; its bits are cleared when ClassIds releases its id,
+ * before the id is given to another class.
+ *
+ * Changes are serialised by a lock, and are rare (once per class).  The bitmaps are copied on
+ * write and published together, so a lookup or query reads one consistent snapshot without
+ * locking.  As a query's snapshot may hold the id of a class that has since been unloaded, and
+ * the id given to another class, each class it returns is checked against the latest bitmaps.
+ */
+public class AnnotatedClassIndex {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final Object lock = new Object();
+
+    // guarded by lock for writes; replaced, never modified
+    private volatile Bitmaps bitmaps = new Bitmaps(EMPTY,new long[0][]);
+
+    // registered with ClassIds on the first add, there's nothing to clear before
+    private final AtomicBoolean listening = new AtomicBoolean();
+    private final ClassIds.ReleaseListener releaseListener = new ClassIds.ReleaseListener() {
+        @Override
+        public void released(int[] ids, int count) {
+            clear(ids,count);
+        }
+    };
+
+    /**
+     * @return true if the class has already been added to the index
+     */
+    public boolean contains(Class clazz) {
+        return isSet(bitmaps.seen,ClassIds.idOf(clazz));
+    }
+
+    public void add(Class clazz, Annotation[] annotations) {
+        // not under the lock, ClassIds calls clear() holding its own
+        if(!listening.get() && listening.compareAndSet(false,true)) {
+            ClassIds.addReleaseListener(releaseListener);
+        }
+        int classId = ClassIds.idOf(clazz);
+        synchronized (lock) {
+            Bitmaps current = bitmaps;
+            if(isSet(current.seen,classId)) return;
+
+            long[][] postings = current.postings.clone();
+            for(Annotation annotation : annotations) {
+                int typeId = AnnotationTypeIds.idOf(annotation.annotationType());
+                if(typeId>=postings.length) {
+                    postings = Arrays.copyOf(postings,Math.max(typeId+1,postings.length*2));
+                }
+                postings[typeId] = set(postings[typeId],classId);
+            }
+            bitmaps = new Bitmaps(set(current.seen,classId),postings);
+        }
+    }
+
+    /**
+     * Forgets the released class ids, before ClassIds gives them to other classes
+     */
+    private void clear(int[] ids, int count) {
+        synchronized (lock) {
+            Bitmaps current = bitmaps;
+            long[] seen = current.seen;
+            long[][] postings = current.postings;
+            for(int i=0;i<count;i++) {
+                int id = ids[i];
+                if(!isSet(seen,id)) continue;
+                if(postings==current.postings) {
+                    seen = seen.clone();
+                    postings = postings.clone();
+                }
+                clear(seen,id);
+                for(int typeId=0;typeId<postings.length;typeId++) {
+                    long[] bitmap = postings[typeId];
+                    if(bitmap==null || !isSet(bitmap,id)) continue;
+                    if(current.postings[typeId]==bitmap) {
+                        bitmap = bitmap.clone();
+                        postings[typeId] = bitmap;
+                    }
+                    clear(bitmap,id);
+                }
+            }
+            if(postings!=current.postings) bitmaps = new Bitmaps(seen,postings);
+        }
+    }
+
+    /**
+     * @return the classes seen so far that carry the given annotation
+     */
+    public List<Class> classesAnnotatedWith(Class<? extends Annotation> annotationType) {
+        return query().with(annotationType).classes();
+    }
+
+    /**
+     * A query over the classes in the index, i.e. index.query().with(X.class).with(Y.class).without(Z.class).classes()
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    private static long[] postingsFor(Bitmaps bitmaps, Class<? extends Annotation> annotationType) {
+        int typeId = AnnotationTypeIds.idOf(annotationType);
+        if(typeId>=bitmaps.postings.length || bitmaps.postings[typeId]==null) return EMPTY;
+        return bitmaps.postings[typeId];
+    }
+
+    private static boolean isSet(long[] bitmap, int id) {
+        int word = id >>> 6;
+        return word < bitmap.length && (bitmap[word] & (1L << id)) != 0;
+    }
+
+    /**
+     * @return a copy of the bitmap, grown if need be, with the id set
+     */
+    private static long[] set(long[] bitmap, int id) {
+        int word = id >>> 6;
+        long[] copy;
+        if(bitmap==null) {
+            copy = new long[word+1];
+        } else {
+            copy = Arrays.copyOf(bitmap,Math.max(word+1,bitmap.length));
+        }
+        copy[word] |= (1L << id);
+        return copy;
+    }
+
+    // only on a copy that has not been published
+    private static void clear(long[] bitmap, int id) {
+        int word = id >>> 6;
+        if(word<bitmap.length) bitmap[word] &= ~(1L << id);
+    }
+
+    private static final class Bitmaps {
+        // the class ids that have been added
+        final long[] seen;
+        // the class ids per annotation type id
+        final long[][] postings;
+
+        Bitmaps(long[] seen, long[][] postings) {
+            this.seen = seen;
+            this.postings = postings;
+        }
+    }
+
+    public class Query {
+        private final List<Class<? extends Annotation>> with = new ArrayList<Class<? extends Annotation>>(4);
+        private final List<Class<? extends Annotation>> without = new ArrayList<Class<? extends Annotation>>(4);
+
+        private Query() {}
+
+        public Query with(Class<? extends Annotation> annotationType) {
+            with.add(annotationType);
+            return this;
+        }
+
+        public Query without(Class<? extends Annotation> annotationType) {
+            without.add(annotationType);
+            return this;
+        }
+
+        /**
+         * @return the bitmap of the ids of the matching classes
+         */
+        private long[] evaluate(Bitmaps snapshot) {
+            long[] result;
+            if(with.isEmpty()) {
+                result = snapshot.seen.clone();
+            } else {
+                result = postingsFor(snapshot,with.get(0)).clone();
+                for(int i=1;i<with.size();i++) {
+                    long[] other = postingsFor(snapshot,with.get(i));
+                    int words = Math.min(result.length,other.length);
+                    for(int w=0;w<words;w++) result[w] &= other[w];
+                    for(int w=words;w<result.length;w++) result[w] = 0;
+                }
+            }
+
+            for(Class<? extends Annotation> annotationType : without) {
+                long[] other = postingsFor(snapshot,annotationType);
+                int words = Math.min(result.length,other.length);
+                for(int w=0;w<words;w++) result[w] &= ~other[w];
+            }
+            return result;
+        }
+
+        /**
+         * @return true if the class with the given id matches, in the given bitmaps
+         */
+        private boolean matches(Bitmaps snapshot, int id) {
+            if(!isSet(snapshot.seen,id)) return false;
+            for(Class<? extends Annotation> annotationType : with) {
+                if(!isSet(postingsFor(snapshot,annotationType),id)) return false;
+            }
+            for(Class<? extends Annotation> annotationType : without) {
+                if(isSet(postingsFor(snapshot,annotationType),id)) return false;
+            }
+            return true;
+        }
+
+        public int count() {
+            int count = 0;
+            for(long word : evaluate(bitmaps)) count += Long.bitCount(word);
+            return count;
+        }
+
+        public List<Class> classes() {
+            Bitmaps snapshot = bitmaps;
+            long[] result = evaluate(snapshot);
+            List<Class> classes = new ArrayList<Class>();
+            for(int w=0;w<result.length;w++) {
+                long word = result[w];
+                while(word!=0) {
+                    int id = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    Class clazz = ClassIds.classOf(id);
+                    if(clazz==null) continue;
+                    // Read after the class: had the id been released since the snapshot, it's cleared from
+                    // these bitmaps, unless the class now holding it has been added; and then it is checked
+                    Bitmaps latest = bitmaps;
+                    if(latest==snapshot || matches(latest,id)) classes.add(clazz);
+                }
+            }
+            return classes;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.greencheek.annotations.service;
+
+/**
+ * Gives the time a class's annotations are held for, after they are written to the cache,
+ * so that entries can expire at different times.
+ */
+public interface AnnotationExpiry {
+    /**
+     * @return the number of nanoseconds the class's annotations are held for, after they are written
+     */
+    long expireAfterWriteNanos(Class clazz);
+}
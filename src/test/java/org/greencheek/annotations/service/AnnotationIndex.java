@@ -0,0 +1,115 @@
+package org.greencheek.annotations.service;
+
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+
+/**
+ * The annotations of a class, indexed by the id of their annotation type.
+ *
+ * A bitset records which annotation type ids are present, and the annotations are held
+ * in a compact array ordered by id.  A presence check is a single bit test; finding the
+ * annotation adds a popcount of the lower bits to get its slot in the array.
+ *
+ * The bitset only covers the words from the class's lowest id to its highest, so its size
+ * does not grow with the number of annotation types the jvm has seen.  When the class's ids
+ * are too far apart for that to be small (more words than annotations), the sorted ids are
+ * binary searched instead.
+ */
+public final class AnnotationIndex {
+
+    private final Annotation[] annotations;
+    // the word of the annotation type ids that is the bitset's first
+    private final int baseWord;
+    private final long[] bits;
+    // number of bits set in the words before each word of the bitset
+    private final int[] ranks;
+    // the ids in slot order, when there is no bitset
+    private final int[] sortedIds;
+    private final Annotation[] slots;
+
+    private AnnotationIndex(Annotation[] annotations, int baseWord, long[] bits, int[] ranks, int[] sortedIds, Annotation[] slots) {
+        this.annotations = annotations;
+        this.baseWord = baseWord;
+        this.bits = bits;
+        this.ranks = ranks;
+        this.sortedIds = sortedIds;
+        this.slots = slots;
+    }
+
+    public static AnnotationIndex forClass(Class clazz) {
+        return create(clazz.getAnnotations());
+    }
+
+    public static AnnotationIndex create(Annotation[] annotations) {
+        long[] ids = new long[annotations.length];
+        for(int i=0;i<annotations.length;i++) {
+            int id = AnnotationTypeIds.idOf(annotations[i].annotationType());
+            // the id in the high bits, the position in the low bits, so sorting orders by id
+            ids[i] = ((long)id << 32) | i;
+        }
+        Arrays.sort(ids);
+
+        Annotation[] slots = new Annotation[annotations.length];
+        for(int i=0;i<ids.length;i++) {
+            slots[i] = annotations[(int)ids[i]];
+        }
+        if(ids.length==0) {
+            return new AnnotationIndex(annotations,0,new long[0],new int[0],null,slots);
+        }
+
+        int baseWord = (int)(ids[0] >>> 32) >>> 6;
+        int words = ((int)(ids[ids.length-1] >>> 32) >>> 6) - baseWord + 1;
+        if(words>ids.length) {
+            int[] sortedIds = new int[ids.length];
+            for(int i=0;i<ids.length;i++) {
+                sortedIds[i] = (int)(ids[i] >>> 32);
+            }
+            return new AnnotationIndex(annotations,0,null,null,sortedIds,slots);
+        }
+
+        long[] bits = new long[words];
+        for(int i=0;i<ids.length;i++) {
+            int id = (int)(ids[i] >>> 32);
+            bits[(id >>> 6) - baseWord] |= (1L << id);
+        }
+
+        int[] ranks = new int[bits.length];
+        int rank = 0;
+        for(int i=0;i<bits.length;i++) {
+            ranks[i] = rank;
+            rank += Long.bitCount(bits[i]);
+        }
+
+        return new AnnotationIndex(annotations,baseWord,bits,ranks,null,slots);
+    }
+
+    public Annotation[] getAnnotations() {
+        return annotations;
+    }
+
+    public boolean isAnnotationPresent(Class<? extends Annotation> annotationType) {
+        int id = AnnotationTypeIds.idOf(annotationType);
+        if(sortedIds!=null) return Arrays.binarySearch(sortedIds,id) >= 0;
+
+        int word = (id >>> 6) - baseWord;
+        return word >= 0 && word < bits.length && (bits[word] & (1L << id)) != 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <A extends Annotation> A getAnnotation(Class<A> annotationType) {
+        int id = AnnotationTypeIds.idOf(annotationType);
+        if(sortedIds!=null) {
+            int slot = Arrays.binarySearch(sortedIds,id);
+            return slot < 0 ? null : (A) slots[slot];
+        }
+
+        int word = (id >>> 6) - baseWord;
+        if(word < 0 || word >= bits.length) return null;
+
+        long bit = 1L << id;
+        long wordBits = bits[word];
+        if((wordBits & bit) == 0) return null;
+
+        return (A) slots[ranks[word] + Long.bitCount(wordBits & (bit - 1))];
+    }
+}
@@ -10,5 +10,7 @@ import java.lang.annotation.Annotation;
 public interface AnnotationReader
 {
     Annotation[] getAnnotations(Class clazz);
+    <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType);
+    boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType);
     void close();
 }
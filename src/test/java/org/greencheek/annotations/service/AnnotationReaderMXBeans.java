@@ -0,0 +1,108 @@
+package org.greencheek.annotations.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registers, and unregisters, an AnnotationReaderStatsMXBean for each reader that records its stats;
+ * named after the reader's class and the order it was created in, i.e. CachingAnnotationReader-1.
+ */
+final class AnnotationReaderMXBeans {
+
+    private static Logger log = LoggerFactory.getLogger(AnnotationReaderMXBeans.class);
+
+    static final String DOMAIN = "org.greencheek.annotations";
+
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private AnnotationReaderMXBeans() {}
+
+    /**
+     * @return the name the reader's stats are registered under, or null if they could not be registered
+     */
+    static ObjectName register(InstrumentedAnnotationReader reader) {
+        String name = reader.getClass().getSimpleName() + "-" + instances.incrementAndGet();
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=AnnotationReader,name=" + name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Stats(reader),objectName);
+            return objectName;
+        } catch (JMException e) {
+            log.warn("Unable to register the stats of {} with jmx: {}",name,e.toString());
+            return null;
+        }
+    }
+
+    static void unregister(ObjectName objectName) {
+        if(objectName==null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if(server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("Unable to unregister {} from jmx: {}",objectName,e.toString());
+        }
+    }
+
+    private static final class Stats implements AnnotationReaderStatsMXBean {
+        private final InstrumentedAnnotationReader reader;
+
+        Stats(InstrumentedAnnotationReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public long getRequestCount() {
+            return reader.stats().getRequestCount();
+        }
+
+        @Override
+        public long getHitCount() {
+            return reader.stats().getHitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return reader.stats().getMissCount();
+        }
+
+        @Override
+        public double getHitRate() {
+            return reader.stats().getHitRate();
+        }
+
+        @Override
+        public long getLoadCount() {
+            return reader.stats().getLoadCount();
+        }
+
+        @Override
+        public long getTotalLoadTimeNanos() {
+            return reader.stats().getTotalLoadTimeNanos();
+        }
+
+        @Override
+        public double getAverageLoadPenaltyNanos() {
+            return reader.stats().getAverageLoadPenaltyNanos();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return reader.stats().getEvictionCount();
+        }
+
+        @Override
+        public long getSize() {
+            return reader.stats().getSize();
+        }
+
+        @Override
+        public long getPendingAccesses() {
+            return reader instanceof BufferedAnnotationReader ? ((BufferedAnnotationReader) reader).pendingAccesses() : -1;
+        }
+    }
+}
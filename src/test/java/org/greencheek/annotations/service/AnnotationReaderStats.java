@@ -0,0 +1,71 @@
+package org.greencheek.annotations.service;
+
+/**
+ * The statistics of a reader, at the time they were taken; as guava's CacheStats, plus the size.
+ */
+public final class AnnotationReaderStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadCount;
+    private final long totalLoadTimeNanos;
+    private final long evictionCount;
+    private final long size;
+
+    public AnnotationReaderStats(long hitCount, long missCount, long loadCount, long totalLoadTimeNanos,
+                                 long evictionCount, long size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.totalLoadTimeNanos = totalLoadTimeNanos;
+        this.evictionCount = evictionCount;
+        this.size = size;
+    }
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the proportion of requests that were hits, 1.0 when there have been no requests
+     */
+    public double getHitRate() {
+        long requests = getRequestCount();
+        return requests==0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    public long getTotalLoadTimeNanos() {
+        return totalLoadTimeNanos;
+    }
+
+    public double getAverageLoadPenaltyNanos() {
+        return loadCount==0 ? 0.0 : (double) totalLoadTimeNanos / loadCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hitCount + ", misses=" + missCount + ", hitRate=" + String.format("%.4f",getHitRate())
+                + ", loads=" + loadCount + ", totalLoadTimeNanos=" + totalLoadTimeNanos
+                + ", evictions=" + evictionCount + ", size=" + size;
+    }
+}
@@ -0,0 +1,31 @@
+package org.greencheek.annotations.service;
+
+/**
+ * The statistics of a reader, over jmx; registered by AnnotationReaderMXBeans as
+ * org.greencheek.annotations:type=AnnotationReader,name=[reader class]-[n]
+ */
+public interface AnnotationReaderStatsMXBean {
+
+    long getRequestCount();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadCount();
+
+    long getTotalLoadTimeNanos();
+
+    double getAverageLoadPenaltyNanos();
+
+    long getEvictionCount();
+
+    long getSize();
+
+    /**
+     * @return the accesses waiting to be applied to the eviction order, -1 if the reader does not buffer them
+     */
+    long getPendingAccesses();
+}
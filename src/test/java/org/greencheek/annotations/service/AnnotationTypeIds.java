@@ -0,0 +1,30 @@
+package org.greencheek.annotations.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns each annotation type a small integer id, the first time it is seen.
+ * The id is held in the annotation type's ClassValue slot, so looking it up again
+ * involves no hashing and no allocation.
+ *
+ * Ids are not reused.  An annotation type is only unloaded with the classes that carry it,
+ * which AnnotatedClassIndex forgets lazily, so its id could still be in their postings.  An
+ * AnnotationIndex is sized by its own ids, so a high id costs it no more than a low one.
+ */
+final class AnnotationTypeIds {
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private static final ClassValue<Integer> ids = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return nextId.getAndIncrement();
+        }
+    };
+
+    private AnnotationTypeIds() {}
+
+    static int idOf(Class<?> annotationType) {
+        return ids.get(annotationType);
+    }
+}
@@ -14,5 +14,17 @@ public class BasicAnnotationReader implements AnnotationReader {
         return clazz.getAnnotations();
     }
 
+    // Unlike getAnnotations, neither of these clone the class's annotation array
+
+    @Override
+    public <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType) {
+        return ((Class<?>) clazz).getAnnotation(annotationType);
+    }
+
+    @Override
+    public boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType) {
+        return ((Class<?>) clazz).isAnnotationPresent(annotationType);
+    }
+
     public void close(){}
 }
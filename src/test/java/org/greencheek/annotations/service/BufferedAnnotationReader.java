@@ -0,0 +1,14 @@
+package org.greencheek.annotations.service;
+
+/**
+ * A reader that buffers the accesses it records, and applies them to its eviction order later.  When the
+ * buffers are drained more slowly than they are filled, the pending accesses are what fills the heap
+ * (the millions of ReadTasks, or recency queue entries, found in the heap dumps).
+ */
+public interface BufferedAnnotationReader extends AnnotationReader {
+
+    /**
+     * @return the number of recorded accesses not yet applied to the eviction order, or -1 if they cannot be counted
+     */
+    long pendingAccesses();
+}
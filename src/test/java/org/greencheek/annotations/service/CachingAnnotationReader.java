@@ -1,56 +1,329 @@
 package org.greencheek.annotations.service;
 
-import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
-import com.sun.xml.internal.xsom.parser.AnnotationParserFactory;
-import org.greencheek.annotations.domain.ClassWithAnnotations;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import javax.management.ObjectName;
 import java.lang.annotation.Annotation;
-import java.util.Arrays;
-import java.util.Map;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.LockSupport;
 
 /**
  * User: dominictootell
  * Date: 27/02/2013
  * Time: 22:02
  */
-public class CachingAnnotationReader implements AnnotationReader {
+public class CachingAnnotationReader implements InstrumentedAnnotationReader, BufferedAnnotationReader {
 
-    private final LoadingCache<Class,Annotation[]> cache;
-    private final AtomicInteger access = new AtomicInteger(0);
+    private final LoadingCache<Class,AnnotationIndex> cache;
+
+    // reads the cache without recording the access, for the hits that are not recorded
+    private final QuietReads quietReads;
+    private final AccessSampler accessSampler;
+    private final int maintenanceInterval;
+
+    // runs the refresh ahead reloads; null when entries are not refreshed
+    private final Executor refreshExecutor;
+    // the pool created by the reader, when one was not given, that is shutdown on close
+    private final ExecutorService ownedRefreshExecutor;
+
+    // null when stats are not recorded
+    private final ReaderStatsCounter stats;
+    // registered once the reader is constructed; null when stats are not recorded, or could not be registered
+    private volatile ObjectName statsName;
+    private final PendingAccesses pendingAccesses;
+    // null when hits are always recorded (as the accessSampler decides)
+    private final AccessBackpressure backpressure;
 
     public CachingAnnotationReader()  {
-        cache = CacheBuilder.newBuilder()
-                .maximumSize(1000)
-                .expireAfterWrite(10, TimeUnit.SECONDS)
-                .concurrencyLevel(64)
-                .build(new CacheLoader<Class, Annotation[]>() {
+        this(new Builder());
+    }
+
+    private CachingAnnotationReader(Builder builder) {
+        accessSampler = builder.accessSampler;
+        maintenanceInterval = builder.maintenanceInterval;
+        stats = builder.recordStats ? new ReaderStatsCounter() : null;
+
+        CacheBuilder<Object,Object> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumSize(builder.maximumSize)
+                .expireAfterWrite(builder.expireAfterWriteNanos, TimeUnit.NANOSECONDS)
+                .concurrencyLevel(builder.concurrencyLevel);
+
+        if(builder.refreshAfterWriteNanos>0) {
+            cacheBuilder.refreshAfterWrite(builder.refreshAfterWriteNanos, TimeUnit.NANOSECONDS);
+            if(builder.refreshExecutor!=null) {
+                ownedRefreshExecutor = null;
+                refreshExecutor = builder.refreshExecutor;
+            } else {
+                ownedRefreshExecutor = new ThreadPoolExecutor(builder.refreshThreads,builder.refreshThreads,
+                        60,TimeUnit.SECONDS,new ArrayBlockingQueue<Runnable>(builder.refreshQueueSize),
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("annotation-refresh-%d").build());
+                refreshExecutor = ownedRefreshExecutor;
+            }
+        } else {
+            ownedRefreshExecutor = null;
+            refreshExecutor = null;
+        }
+
+        cache = cacheBuilder
+                .removalListener(new RemovalListener<Class, AnnotationIndex>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Class, AnnotationIndex> notification) {
+                        if(stats!=null && notification.wasEvicted()) stats.recordEviction();
+                    }
+                })
+                .build(new CacheLoader<Class, AnnotationIndex>() {
                     @Override
-                    public Annotation[] load(Class key) throws Exception {
-                        return key.getAnnotations();
+                    public AnnotationIndex load(Class key) throws Exception {
+                        if(stats!=null) stats.recordMiss();
+                        return loadIndex(key);
+                    }
+
+                    /**
+                     * Reloads on the refresh pool, while readers carry on getting the old value.
+                     * If the pool is saturated the old value is kept, and the refresh is tried again
+                     * after the next refresh interval.
+                     */
+                    @Override
+                    public ListenableFuture<AnnotationIndex> reload(final Class key, AnnotationIndex oldValue) {
+                        ListenableFutureTask<AnnotationIndex> task = ListenableFutureTask.create(new Callable<AnnotationIndex>() {
+                            @Override
+                            public AnnotationIndex call() throws Exception {
+                                return loadIndex(key);
+                            }
+                        });
+                        try {
+                            refreshExecutor.execute(task);
+                        } catch (RejectedExecutionException e) {
+                            return Futures.immediateFuture(oldValue);
+                        }
+                        return task;
                     }
                 });
 
+        quietReads = QuietReads.ofGuavaCache(cache.asMap());
+        pendingAccesses = PendingAccesses.ofGuavaCache(cache.asMap());
+        if(builder.highWaterMark>0) {
+            backpressure = new AccessBackpressure(getClass().getSimpleName(),pendingAccesses,new Runnable() {
+                @Override
+                public void run() {
+                    cache.cleanUp();
+                }
+            },builder.highWaterMark,builder.lowWaterMark,builder.maximumDrainLagNanos);
+        } else {
+            backpressure = null;
+        }
+    }
+
+    /**
+     * Loads the class's annotations, for a miss or a refresh
+     */
+    private AnnotationIndex loadIndex(Class key) {
+        long start = stats==null ? 0 : System.nanoTime();
+        AnnotationIndex annos = AnnotationIndex.forClass(key);
+        if(stats!=null) stats.recordLoad(System.nanoTime() - start);
+        return annos;
     }
 
     @Override
     public Annotation[] getAnnotations(final Class clazz) {
-//        cache.stats();  // this call reduces the recency queue
-        Annotation[] annos = cache.getUnchecked(clazz);
-//        int x = access.incrementAndGet();
-//        if(x%1000==0) { cache.put(clazz,annos); }
+        return index(clazz).getAnnotations();
+    }
+
+    @Override
+    public <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType) {
+        return index(clazz).getAnnotation(annotationType);
+    }
+
+    @Override
+    public boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType) {
+        return index(clazz).isAnnotationPresent(annotationType);
+    }
+
+    private AnnotationIndex index(final Class clazz) {
+        if(stats!=null) stats.recordRequest();
+        if((backpressure==null || backpressure.shouldRecord()) && accessSampler.shouldRecord()) {
+            return getAndRecord(clazz);
+        }
+
+        AnnotationIndex annos = (AnnotationIndex) quietReads.get(clazz);
+        return annos==null ? cache.getUnchecked(clazz) : annos;
+    }
+
+    private AnnotationIndex getAndRecord(final Class clazz) {
+        AnnotationIndex annos = cache.getUnchecked(clazz);
+        if(maintenanceInterval>0 && ThreadLocalRandom.current().nextInt(maintenanceInterval)==0) {
+            // drains the recency queue and removes expired entries
+            cache.cleanUp();
+        }
         return annos;
+    }
+
+    @Override
+    public AnnotationReaderStats stats() {
+        return stats==null ? null : stats.snapshot(cache.size());
+    }
 
+    /**
+     * The reads recorded since each segment of the cache was last cleaned up; an upper bound on the
+     * entries in the cache's recency queues
+     */
+    @Override
+    public long pendingAccesses() {
+        return pendingAccesses.count();
     }
 
     public void close() {
+        AnnotationReaderMXBeans.unregister(statsName);
+        if(ownedRefreshExecutor!=null) ownedRefreshExecutor.shutdownNow();
         cache.cleanUp();
     }
 
+    /**
+     * Builds a CachingAnnotationReader.  By default every access is recorded against the LRU,
+     * as is the case with a plain guava cache.
+     *
+     * When only a sample of accesses are recorded, the remaining hits are read from the cache
+     * quietly (see QuietReads), so they never touch the guava recency queue.  The sampled accesses
+     * periodically force the cache's maintenance, which removes the expired entries; so expiry
+     * is honoured to within the sampling and maintenance intervals.
+     *
+     * With refresh ahead, a read of an entry older than the refresh interval reloads it in the
+     * background, on a bounded pool, while the old value continues to be returned.  Set the
+     * refresh interval below the expiry, so that hot entries are reloaded before they expire and
+     * readers do not block on a reload.  As with any LoadingCache, concurrent misses for the same
+     * class wait on the one load that is in flight rather than starting their own.
+     *
+     * With backpressure, hits are not recorded while the cache's recency queues are backed up; they are
+     * read quietly, as unsampled hits are, until the cache has been cleaned up.
+     *
+     * There is no admission policy: guava evicts its LRU victim inside the write that stored the new
+     * entry, without exposing the victim beforehand, so there is no point at which to ask a policy.
+     * CachingLinkedHashMapAnnotationReader takes one.
+     */
+    public static class Builder {
+        private int maximumSize = 1000;
+        private long expireAfterWriteNanos = TimeUnit.SECONDS.toNanos(10);
+        private int concurrencyLevel = 64;
+        private AccessSampler accessSampler = new RecordAllAccessSampler();
+        private int maintenanceInterval = 0;
+        private long refreshAfterWriteNanos = 0;
+        private Executor refreshExecutor = null;
+        private int refreshThreads = 2;
+        private int refreshQueueSize = 1024;
+        private boolean recordStats = false;
+        // 0 when there is no backpressure
+        private long highWaterMark = 0;
+        private long lowWaterMark = 0;
+        private long maximumDrainLagNanos = 0;
+
+        public Builder maximumSize(int maximumSize) {
+            if(maximumSize<0) throw new IllegalArgumentException("maximumSize must not be negative");
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        public Builder expireAfterWrite(long duration, TimeUnit unit) {
+            if(duration<0) throw new IllegalArgumentException("duration must not be negative");
+            this.expireAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        public Builder concurrencyLevel(int concurrencyLevel) {
+            if(concurrencyLevel<1) throw new IllegalArgumentException("concurrencyLevel must be greater than 0");
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * The sampler that decides which hits are recorded against the LRU
+         */
+        public Builder accessSampler(AccessSampler accessSampler) {
+            if(accessSampler==null) throw new NullPointerException("accessSampler");
+            this.accessSampler = accessSampler;
+            return this;
+        }
+
+        /**
+         * On average, every 'interval' recorded access forces the cache's pending maintenance.
+         * 0 leaves the maintenance to the cache.
+         */
+        public Builder maintenanceInterval(int interval) {
+            if(interval<0) throw new IllegalArgumentException("interval must not be negative");
+            this.maintenanceInterval = interval;
+            return this;
+        }
+
+        /**
+         * Reload entries in the background once they are older than the given duration.  0 disables refresh.
+         * i.e. refreshAfterWrite(8, SECONDS) with the default expireAfterWrite(10, SECONDS).
+         */
+        public Builder refreshAfterWrite(long duration, TimeUnit unit) {
+            if(duration<0) throw new IllegalArgumentException("duration must not be negative");
+            this.refreshAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * The size of the bounded pool the reader creates to run the refreshes
+         */
+        public Builder refreshPool(int threads, int queueSize) {
+            if(threads<1) throw new IllegalArgumentException("threads must be greater than 0");
+            if(queueSize<1) throw new IllegalArgumentException("queueSize must be greater than 0");
+            this.refreshThreads = threads;
+            this.refreshQueueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * Runs the refreshes on the given executor, rather than a pool created by the reader.
+         * The executor is not shutdown when the reader is closed.
+         */
+        public Builder refreshExecutor(Executor executor) {
+            this.refreshExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Count the hits, misses, loads and evictions; available from stats() and over jmx
+         * while the reader is open
+         */
+        public Builder recordStats() {
+            this.recordStats = true;
+            return this;
+        }
+
+        /**
+         * Stop recording hits while more than highWaterMark accesses are pending, or while they have not been
+         * drained to the lowWaterMark for a second; until they are drained to the lowWaterMark.
+         * i.e. backpressure(100000, 10000).  See AccessBackpressure.
+         */
+        public Builder backpressure(long highWaterMark, long lowWaterMark) {
+            return backpressure(highWaterMark,lowWaterMark,1,TimeUnit.SECONDS);
+        }
+
+        public Builder backpressure(long highWaterMark, long lowWaterMark, long maximumDrainLag, TimeUnit unit) {
+            if(lowWaterMark<0) throw new IllegalArgumentException("lowWaterMark must not be negative");
+            if(highWaterMark<=lowWaterMark) throw new IllegalArgumentException("highWaterMark must be greater than the lowWaterMark");
+            if(maximumDrainLag<1) throw new IllegalArgumentException("maximumDrainLag must be greater than 0");
+            this.highWaterMark = highWaterMark;
+            this.lowWaterMark = lowWaterMark;
+            this.maximumDrainLagNanos = unit.toNanos(maximumDrainLag);
+            return this;
+        }
+
+        public CachingAnnotationReader build() {
+            CachingAnnotationReader reader = new CachingAnnotationReader(this);
+            // not until it's constructed, so jmx never sees a partly constructed reader
+            if(recordStats) reader.statsName = AnnotationReaderMXBeans.register(reader);
+            return reader;
+        }
+    }
+
 }
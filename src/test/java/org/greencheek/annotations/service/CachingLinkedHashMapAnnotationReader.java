@@ -1,45 +1,224 @@
 package org.greencheek.annotations.service;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 
+import javax.management.ObjectName;
 import java.lang.annotation.Annotation;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * User: dominictootell
  * Date: 27/02/2013
  * Time: 22:02
  */
-public class CachingLinkedHashMapAnnotationReader implements AnnotationReader {
+public class CachingLinkedHashMapAnnotationReader implements InstrumentedAnnotationReader, BufferedAnnotationReader {
 
-    private final ConcurrentMap<Class,Annotation[]> cache;
-    private final AtomicInteger access = new AtomicInteger(0);
+    // on average, every VICTIM_REFRESH_INTERVAL'th admission looks up the LRU entry again
+    static final int VICTIM_REFRESH_INTERVAL = 64;
+
+    private final ConcurrentLinkedHashMap<Class,AnnotationIndex> cache;
+
+    // null when entries are evicted by pure LRU
+    private final AdmissionPolicy admissionPolicy;
+    // The LRU entry when it was last looked up; candidates are compared against it while it is in the map
+    private volatile Class victim;
+
+    // null when stats are not recorded
+    private final ReaderStatsCounter stats;
+    // registered once the reader is constructed; null when stats are not recorded, or could not be registered
+    private volatile ObjectName statsName;
+    private final PendingAccesses pendingAccesses;
+    // null when hits are always recorded
+    private final AccessBackpressure backpressure;
 
     public CachingLinkedHashMapAnnotationReader()  {
-         cache = new ConcurrentLinkedHashMap.Builder<Class,Annotation[]>()
-                .maximumWeightedCapacity(1000)
-                .build();
+        this(new Builder());
+    }
 
+    private CachingLinkedHashMapAnnotationReader(Builder builder) {
+         admissionPolicy = builder.admissionPolicy;
+         stats = builder.recordStats ? new ReaderStatsCounter() : null;
+         ConcurrentLinkedHashMap.Builder<Class,AnnotationIndex> cacheBuilder = new ConcurrentLinkedHashMap.Builder<Class,AnnotationIndex>()
+                .maximumWeightedCapacity(builder.maximumWeightedCapacity)
+                .concurrencyLevel(builder.concurrencyLevel);
+         if(stats!=null) {
+             cacheBuilder.listener(new EvictionListener<Class, AnnotationIndex>() {
+                 @Override
+                 public void onEviction(Class key, AnnotationIndex value) {
+                     stats.recordEviction();
+                 }
+             });
+         }
+         cache = cacheBuilder.build();
+         pendingAccesses = PendingAccesses.ofConcurrentLinkedHashMap(cache);
+         if(builder.highWaterMark>0) {
+             backpressure = new AccessBackpressure(getClass().getSimpleName(),pendingAccesses,new Runnable() {
+                 @Override
+                 public void run() {
+                     // drains the buffers under the eviction lock
+                     cache.ascendingKeySetWithLimit(0);
+                 }
+             },builder.highWaterMark,builder.lowWaterMark,builder.maximumDrainLagNanos);
+         } else {
+             backpressure = null;
+         }
     }
 
     @Override
     public Annotation[] getAnnotations(final Class clazz) {
-        if(cache.containsKey(clazz)) {
-            return cache.get(clazz);
-        } else {
-            Annotation[] anos = clazz.getAnnotations();
-            Annotation[] prev = cache.putIfAbsent(clazz,anos);
-            return prev==null? anos : prev;
+        return index(clazz).getAnnotations();
+    }
+
+    @Override
+    public <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType) {
+        return index(clazz).getAnnotation(annotationType);
+    }
+
+    @Override
+    public boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType) {
+        return index(clazz).isAnnotationPresent(annotationType);
+    }
+
+    private AnnotationIndex index(final Class clazz) {
+        if(stats!=null) stats.recordRequest();
+        if(admissionPolicy!=null) admissionPolicy.record(clazz);
+        // one lookup; an entry evicted between a containsKey and a get would otherwise be returned as null
+        AnnotationIndex cached = backpressure==null || backpressure.shouldRecord() ? cache.get(clazz) : cache.getQuietly(clazz);
+        if(cached!=null) {
+            return cached;
+        }
+
+        AnnotationIndex anos = load(clazz);
+        if(!admit(clazz)) {
+            return anos;
+        }
+        AnnotationIndex prev = cache.putIfAbsent(clazz,anos);
+        return prev==null? anos : prev;
+    }
+
+    private AnnotationIndex load(Class clazz) {
+        if(stats==null) return AnnotationIndex.forClass(clazz);
+
+        stats.recordMiss();
+        long start = System.nanoTime();
+        AnnotationIndex anos = AnnotationIndex.forClass(clazz);
+        stats.recordLoad(System.nanoTime() - start);
+        return anos;
+    }
+
+    /**
+     * When the map is full, asks the admission policy if the class may replace the map's LRU entry.
+     *
+     * Finding the LRU entry takes the eviction lock and drains the buffers, which on every miss
+     * serialises the misses of a scan; it cost a third of the miss throughput of 8 threads missing
+     * on a full map.  So the victim is reused, until it is evicted (an admitted candidate replaces it)
+     * or a random 1 in VICTIM_REFRESH_INTERVAL admissions looks it up again, in case it has been read
+     * since and is no longer the LRU entry.  Meanwhile a candidate is compared against an entry that
+     * may be warmer than the LRU one, so is rejected slightly more often.
+     */
+    private boolean admit(Class clazz) {
+        if(admissionPolicy==null || cache.weightedSize()<cache.capacity()) {
+            return true;
+        }
+
+        Class lru = victim;
+        if(lru==null || cache.getQuietly(lru)==null || ThreadLocalRandom.current().nextInt(VICTIM_REFRESH_INTERVAL)==0) {
+            lru = null;
+            for(Class key : cache.ascendingKeySetWithLimit(1)) {
+                lru = key;
+            }
+            victim = lru;
         }
+        return lru==null || admissionPolicy.admit(clazz,lru);
+    }
+
+    @Override
+    public AnnotationReaderStats stats() {
+        return stats==null ? null : stats.snapshot(cache.size());
+    }
+
+    /**
+     * The tasks (reads and writes) waiting in the map's buffers
+     */
+    @Override
+    public long pendingAccesses() {
+        return pendingAccesses.count();
     }
 
     public void close() {
+        AnnotationReaderMXBeans.unregister(statsName);
+        victim = null;
         cache.clear();
     }
 
+    public static class Builder {
+        private long maximumWeightedCapacity = 1000;
+        private int concurrencyLevel = 16;
+        private AdmissionPolicy admissionPolicy = null;
+        private boolean recordStats = false;
+        // 0 when there is no backpressure
+        private long highWaterMark = 0;
+        private long lowWaterMark = 0;
+        private long maximumDrainLagNanos = 0;
+
+        public Builder maximumWeightedCapacity(long capacity) {
+            if(capacity<0) throw new IllegalArgumentException("capacity must not be negative");
+            this.maximumWeightedCapacity = capacity;
+            return this;
+        }
+
+        public Builder concurrencyLevel(int concurrencyLevel) {
+            if(concurrencyLevel<1) throw new IllegalArgumentException("concurrencyLevel must be greater than 0");
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * The policy that decides if a newly read class may replace the LRU entry, when the
+         * map is full.  i.e. new TinyLfuAdmissionPolicy(capacity).  By default the LRU entry is
+         * always replaced.
+         */
+        public Builder admissionPolicy(AdmissionPolicy admissionPolicy) {
+            this.admissionPolicy = admissionPolicy;
+            return this;
+        }
+
+        /**
+         * Count the hits, misses, loads and evictions; available from stats() and over jmx
+         * while the reader is open
+         */
+        public Builder recordStats() {
+            this.recordStats = true;
+            return this;
+        }
+
+        /**
+         * Stop recording hits while more than highWaterMark accesses are pending, or while they have not been
+         * drained to the lowWaterMark for a second; until they are drained to the lowWaterMark.
+         * i.e. backpressure(100000, 10000).  See AccessBackpressure.
+         */
+        public Builder backpressure(long highWaterMark, long lowWaterMark) {
+            return backpressure(highWaterMark,lowWaterMark,1,TimeUnit.SECONDS);
+        }
+
+        public Builder backpressure(long highWaterMark, long lowWaterMark, long maximumDrainLag, TimeUnit unit) {
+            if(lowWaterMark<0) throw new IllegalArgumentException("lowWaterMark must not be negative");
+            if(highWaterMark<=lowWaterMark) throw new IllegalArgumentException("highWaterMark must be greater than the lowWaterMark");
+            if(maximumDrainLag<1) throw new IllegalArgumentException("maximumDrainLag must be greater than 0");
+            this.highWaterMark = highWaterMark;
+            this.lowWaterMark = lowWaterMark;
+            this.maximumDrainLagNanos = unit.toNanos(maximumDrainLag);
+            return this;
+        }
+
+        public CachingLinkedHashMapAnnotationReader build() {
+            CachingLinkedHashMapAnnotationReader reader = new CachingLinkedHashMapAnnotationReader(this);
+            // not until it's constructed, so jmx never sees a partly constructed reader
+            if(recordStats) reader.statsName = AnnotationReaderMXBeans.register(reader);
+            return reader;
+        }
+    }
+
 }
@@ -0,0 +1,133 @@
+package org.greencheek.annotations.service;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Assigns each class a small integer id, the first time it is seen, so that sets of
+ * classes can be held as bitmaps.  The id is held in the class's ClassValue slot; the
+ * reverse mapping only holds the class weakly, so class loaders are not retained.
+ *
+ * Once a class has been unloaded its id is reused, lowest first, so the ids stay about as
+ * dense as the most classes alive at once, rather than growing with every class ever seen.
+ * Before an id is reused, the ReleaseListeners are told, so that they can forget it.
+ */
+final class ClassIds {
+
+    /**
+     * Told of the ids of unloaded classes, before they are reused.  Held weakly.
+     */
+    interface ReleaseListener {
+        void released(int[] ids, int count);
+    }
+
+    private static final Object lock = new Object();
+
+    // guarded by lock for writes
+    private static volatile WeakReference<Class>[] classes = newArray(1024);
+    // guarded by lock
+    private static int nextId;
+    private static final BitSet freeIds = new BitSet();
+    private static final ReferenceQueue<Class> unloaded = new ReferenceQueue<Class>();
+    private static final List<WeakReference<ReleaseListener>> listeners = new ArrayList<WeakReference<ReleaseListener>>();
+
+    private static final ClassValue<Integer> ids = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            synchronized (lock) {
+                releaseUnloaded();
+
+                int id = freeIds.nextSetBit(0);
+                if(id<0) {
+                    id = nextId++;
+                } else {
+                    freeIds.clear(id);
+                }
+                WeakReference<Class>[] current = classes;
+                if(id>=current.length) {
+                    current = Arrays.copyOf(current,current.length*2);
+                }
+                current[id] = new IdReference(type,id,unloaded);
+                classes = current;
+                return id;
+            }
+        }
+    };
+
+    private ClassIds() {}
+
+    static int idOf(Class<?> clazz) {
+        return ids.get(clazz);
+    }
+
+    /**
+     * @return the class with the given id, or null if it has been unloaded
+     */
+    static Class classOf(int id) {
+        WeakReference<Class>[] current = classes;
+        if(id>=current.length) return null;
+        WeakReference<Class> ref = current[id];
+        return ref==null ? null : ref.get();
+    }
+
+    /**
+     * Tells the listener of the ids released from now on; until the listener is no longer reachable
+     */
+    static void addReleaseListener(ReleaseListener listener) {
+        synchronized (lock) {
+            listeners.add(new WeakReference<ReleaseListener>(listener));
+        }
+    }
+
+    // guarded by lock
+    private static void releaseUnloaded() {
+        IdReference ref = (IdReference) unloaded.poll();
+        if(ref==null) return;
+
+        int[] released = new int[16];
+        int count = 0;
+        WeakReference<Class>[] current = classes;
+        for(;ref!=null;ref = (IdReference) unloaded.poll()) {
+            // the slot is only ever replaced after the id is released, so still holds this reference
+            current[ref.id] = null;
+            if(count==released.length) released = Arrays.copyOf(released,count*2);
+            released[count++] = ref.id;
+        }
+        classes = current;
+
+        Iterator<WeakReference<ReleaseListener>> it = listeners.iterator();
+        while(it.hasNext()) {
+            ReleaseListener listener = it.next().get();
+            if(listener==null) {
+                it.remove();
+            } else {
+                listener.released(released,count);
+            }
+        }
+
+        for(int i=0;i<count;i++) freeIds.set(released[i]);
+        // give back the ids at the top, so the next ids are as low as they can be
+        while(nextId>0 && freeIds.get(nextId-1)) {
+            freeIds.clear(--nextId);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WeakReference<Class>[] newArray(int size) {
+        return (WeakReference<Class>[]) new WeakReference[size];
+    }
+
+    private static final class IdReference extends WeakReference<Class> {
+        final int id;
+
+        IdReference(Class clazz, int id, ReferenceQueue<Class> queue) {
+            super(clazz,queue);
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.greencheek.annotations.service;
+
+import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Partitions the cache by the class loader that defined the class, so that classes, and their
+ * class loader, are not retained by the cache once the loader is otherwise unreachable.
+ *
+ * Each partition is a bounded StripedReadBufferAnnotationReader.  The reader itself only refers
+ * to a partition weakly.  The strong reference to a partition is held by the ClassValue slots of
+ * the loader's own classes.  So the partition, the classes it holds, and the loader form a cycle that
+ * the garbage collector drops as a whole when the loader is no longer used.  There is one weak
+ * reference per class loader, rather than one per cached entry, and so no per entry reference
+ * processing.
+ *
+ * Classes defined by the bootstrap loader share a partition that is held strongly.
+ */
+public class ClassLoaderPartitionedAnnotationReader implements AnnotationReader {
+
+    private static final int DEFAULT_MAXIMUM_SIZE_PER_LOADER = 1000;
+
+    private final int maximumSizePerLoader;
+    private final AnnotationReader bootstrapPartition;
+
+    // guarded by itself; only used when a class is first seen
+    private final Map<ClassLoader,WeakReference<AnnotationReader>> loaderPartitions = new WeakHashMap<ClassLoader,WeakReference<AnnotationReader>>();
+
+    private final ClassValue<AnnotationReader> partitions = new ClassValue<AnnotationReader>() {
+        @Override
+        protected AnnotationReader computeValue(Class<?> type) {
+            return partitionFor(type.getClassLoader());
+        }
+    };
+
+    public ClassLoaderPartitionedAnnotationReader() {
+        this(DEFAULT_MAXIMUM_SIZE_PER_LOADER);
+    }
+
+    public ClassLoaderPartitionedAnnotationReader(int maximumSizePerLoader) {
+        if(maximumSizePerLoader<1) throw new IllegalArgumentException("maximumSizePerLoader must be greater than 0");
+        this.maximumSizePerLoader = maximumSizePerLoader;
+        this.bootstrapPartition = new StripedReadBufferAnnotationReader(maximumSizePerLoader);
+    }
+
+    private AnnotationReader partitionFor(ClassLoader loader) {
+        if(loader==null) return bootstrapPartition;
+
+        synchronized (loaderPartitions) {
+            WeakReference<AnnotationReader> ref = loaderPartitions.get(loader);
+            AnnotationReader partition = ref==null ? null : ref.get();
+            if(partition==null) {
+                partition = new StripedReadBufferAnnotationReader(maximumSizePerLoader);
+                loaderPartitions.put(loader,new WeakReference<AnnotationReader>(partition));
+            }
+            return partition;
+        }
+    }
+
+    @Override
+    public Annotation[] getAnnotations(Class clazz) {
+        return partitions.get(clazz).getAnnotations(clazz);
+    }
+
+    @Override
+    public <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType) {
+        return partitions.get(clazz).getAnnotation(clazz,annotationType);
+    }
+
+    @Override
+    public boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType) {
+        return partitions.get(clazz).isAnnotationPresent(clazz,annotationType);
+    }
+
+    /**
+     * @return the number of class loaders, other than the bootstrap loader, that have a live partition
+     */
+    public int partitionCount() {
+        int count = 0;
+        synchronized (loaderPartitions) {
+            for(WeakReference<AnnotationReader> ref : loaderPartitions.values()) {
+                if(ref.get()!=null) count++;
+            }
+        }
+        return count;
+    }
+
+    public void close() {
+        List<AnnotationReader> live = new ArrayList<AnnotationReader>();
+        synchronized (loaderPartitions) {
+            for(WeakReference<AnnotationReader> ref : loaderPartitions.values()) {
+                AnnotationReader partition = ref.get();
+                if(partition!=null) live.add(partition);
+            }
+        }
+        for(AnnotationReader partition : live) {
+            partition.close();
+        }
+        bootstrapPartition.close();
+    }
+}
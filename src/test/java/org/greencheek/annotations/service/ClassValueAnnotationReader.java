@@ -0,0 +1,42 @@
+package org.greencheek.annotations.service;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Stores the annotations in the class's own ClassValue slot.  A hit is a lookup in the
+ * per class map the JVM hangs off the Class object; there is no hashing of the key, no
+ * recording of the access and no allocation.
+ *
+ * The entries are not bounded, but as they are owned by the Class they are collected
+ * when the class (and its class loader) is unloaded.
+ */
+public class ClassValueAnnotationReader implements AnnotationReader {
+
+    private final ClassValue<AnnotationIndex> annotations = new ClassValue<AnnotationIndex>() {
+        @Override
+        protected AnnotationIndex computeValue(Class<?> type) {
+            return AnnotationIndex.forClass(type);
+        }
+    };
+
+    @Override
+    public Annotation[] getAnnotations(Class clazz) {
+        return annotations.get(clazz).getAnnotations();
+    }
+
+    @Override
+    public <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType) {
+        return annotations.get(clazz).getAnnotation(annotationType);
+    }
+
+    @Override
+    public boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType) {
+        return annotations.get(clazz).isAnnotationPresent(annotationType);
+    }
+
+    /**
+     * ClassValue entries can only be removed per class, and are released with the class,
+     * so there is nothing to do here.
+     */
+    public void close() {}
+}
@@ -0,0 +1,31 @@
+package org.greencheek.annotations.service;
+
+/**
+ * Records 1 in every N accesses made by a thread.  The count is held per thread,
+ * so there is no shared counter to contend on.
+ */
+public class EveryNthAccessSampler implements AccessSampler {
+
+    private final int n;
+    private final ThreadLocal<int[]> accesses = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    public EveryNthAccessSampler(int n) {
+        if(n<1) throw new IllegalArgumentException("n must be greater than 0");
+        this.n = n;
+    }
+
+    @Override
+    public boolean shouldRecord() {
+        int[] count = accesses.get();
+        if(++count[0]>=n) {
+            count[0] = 0;
+            return true;
+        }
+        return false;
+    }
+}
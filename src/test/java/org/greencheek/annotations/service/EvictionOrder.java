@@ -0,0 +1,17 @@
+package org.greencheek.annotations.service;
+
+/**
+ * The order in which a WriteOrderedAnnotationReader evicts entries once it is full.
+ * Neither depends on reads, so reads are not recorded.
+ */
+public enum EvictionOrder {
+    /**
+     * Least recently added first, i.e. FIFO
+     */
+    INSERTION,
+
+    /**
+     * The entry that is nearest to expiring first
+     */
+    EXPIRATION
+}
@@ -0,0 +1,110 @@
+package org.greencheek.annotations.service;
+
+/**
+ * A count-min sketch of 4-bit counters, estimating how often an item has been seen
+ * within a sample period.  Each long in the table holds sixteen counters; an item maps
+ * to four counters (one per hash function) held in four different longs.
+ *
+ * When the number of increments reaches the sample size, every counter is halved, so
+ * that items that were popular in the past, but no longer are, age out.
+ *
+ * The sketch is not thread safe.  It is written from many threads without locking,
+ * as a lost increment only makes an estimate slightly less accurate.  Counters that
+ * are already saturated are not written to, so hot items do not cause the table to
+ * be contended.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = new long[] {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAXIMUM_FREQUENCY = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param maximumSize the number of entries held by the cache the sketch is for
+     */
+    public FrequencySketch(int maximumSize) {
+        if(maximumSize<1) throw new IllegalArgumentException("maximumSize must be greater than 0");
+        int tableSize = ceilingNextPowerOfTwo(maximumSize);
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        sampleSize = (maximumSize > Integer.MAX_VALUE/10) ? Integer.MAX_VALUE : 10 * maximumSize;
+    }
+
+    /**
+     * @return the estimated number of occurrences of the item, up to a maximum of 15
+     */
+    public int frequency(int itemHash) {
+        int hash = spread(itemHash);
+        int start = (hash & 3) << 2;
+        int frequency = MAXIMUM_FREQUENCY;
+        for(int i=0;i<4;i++) {
+            int index = indexOf(hash,i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            if(count<frequency) frequency = count;
+        }
+        return frequency;
+    }
+
+    /**
+     * Increments the item's counters, unless they are already at the maximum
+     */
+    public void increment(int itemHash) {
+        int hash = spread(itemHash);
+        int start = (hash & 3) << 2;
+
+        boolean added = incrementAt(indexOf(hash,0),start);
+        added |= incrementAt(indexOf(hash,1),start+1);
+        added |= incrementAt(indexOf(hash,2),start+2);
+        added |= incrementAt(indexOf(hash,3),start+3);
+
+        if(added && (++size >= sampleSize)) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        long value = table[index];
+        if((value & mask) != mask) {
+            table[index] = value + (1L << offset);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves every counter, and the sample size to match
+     */
+    private void reset() {
+        int odd = 0;
+        for(int i=0;i<table.length;i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size - (odd >>> 2)) >>> 1;
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += (hash >>> 32);
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingNextPowerOfTwo(int x) {
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    }
+}
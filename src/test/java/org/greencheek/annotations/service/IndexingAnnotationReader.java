@@ -0,0 +1,55 @@
+package org.greencheek.annotations.service;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Wraps a reader, adding each class it reads to an AnnotatedClassIndex the first time
+ * it is seen.  After that a read costs a bit test on top of the wrapped reader.
+ */
+public class IndexingAnnotationReader implements AnnotationReader {
+
+    private final AnnotationReader reader;
+    private final AnnotatedClassIndex index;
+
+    public IndexingAnnotationReader(AnnotationReader reader) {
+        this(reader,new AnnotatedClassIndex());
+    }
+
+    public IndexingAnnotationReader(AnnotationReader reader, AnnotatedClassIndex index) {
+        this.reader = reader;
+        this.index = index;
+    }
+
+    public AnnotatedClassIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public Annotation[] getAnnotations(Class clazz) {
+        Annotation[] annos = reader.getAnnotations(clazz);
+        if(!index.contains(clazz)) {
+            index.add(clazz,annos);
+        }
+        return annos;
+    }
+
+    @Override
+    public <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType) {
+        if(!index.contains(clazz)) {
+            index.add(clazz,reader.getAnnotations(clazz));
+        }
+        return reader.getAnnotation(clazz,annotationType);
+    }
+
+    @Override
+    public boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType) {
+        if(!index.contains(clazz)) {
+            index.add(clazz,reader.getAnnotations(clazz));
+        }
+        return reader.isAnnotationPresent(clazz,annotationType);
+    }
+
+    public void close() {
+        reader.close();
+    }
+}
@@ -0,0 +1,13 @@
+package org.greencheek.annotations.service;
+
+/**
+ * A reader that can report its statistics; those built with recordStats() count them, otherwise
+ * stats() returns null.
+ */
+public interface InstrumentedAnnotationReader extends AnnotationReader {
+
+    /**
+     * @return the statistics so far, or null if the reader is not recording them
+     */
+    AnnotationReaderStats stats();
+}
@@ -0,0 +1,96 @@
+package org.greencheek.annotations.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts the pending accesses of the third party caches, which do not expose them, by reading their
+ * internal counters: the fields are found by reflection once, when the reader is created, so counting
+ * is a read of each counter.  If the fields are not there (another version of the library) a warning is
+ * logged and the count is -1.
+ *
+ * Guava (14): each segment's readCount, the reads since the segment was last cleaned up.  The recency
+ * queue is drained by the cleanup, so this is an upper bound on the queue's length; counting the queue
+ * itself walks every entry of it, which is too slow to do when it is millions long.
+ *
+ * ConcurrentLinkedHashMap (1.3): the sum of bufferLengths, the tasks waiting in each of its buffers.
+ */
+abstract class PendingAccesses {
+
+    private static Logger log = LoggerFactory.getLogger(PendingAccesses.class);
+
+    private static final PendingAccesses UNAVAILABLE = new PendingAccesses() {
+        @Override
+        long count() {
+            return -1;
+        }
+    };
+
+    abstract long count();
+
+    /**
+     * @param localCache the LocalCache behind a guava cache, i.e. cache.asMap()
+     */
+    static PendingAccesses ofGuavaCache(Map<?,?> localCache) {
+        try {
+            Object[] segments = (Object[]) field(localCache.getClass(),"segments").get(localCache);
+            final AtomicInteger[] readCounts = new AtomicInteger[segments.length];
+            for(int i=0;i<segments.length;i++) {
+                readCounts[i] = (AtomicInteger) field(segments[i].getClass(),"readCount").get(segments[i]);
+            }
+            return new PendingAccesses() {
+                @Override
+                long count() {
+                    long pending = 0;
+                    for(AtomicInteger readCount : readCounts) {
+                        pending += readCount.get();
+                    }
+                    return pending;
+                }
+            };
+        } catch (Exception e) {
+            log.warn("Unable to count the pending reads of {}: {}",localCache.getClass().getName(),e.toString());
+            return UNAVAILABLE;
+        }
+    }
+
+    static PendingAccesses ofConcurrentLinkedHashMap(Map<?,?> map) {
+        try {
+            final AtomicIntegerArray bufferLengths = (AtomicIntegerArray) field(map.getClass(),"bufferLengths").get(map);
+            return new PendingAccesses() {
+                @Override
+                long count() {
+                    long pending = 0;
+                    for(int i=0;i<bufferLengths.length();i++) {
+                        pending += bufferLengths.get(i);
+                    }
+                    return pending;
+                }
+            };
+        } catch (Exception e) {
+            log.warn("Unable to count the pending tasks of {}: {}",map.getClass().getName(),e.toString());
+            return UNAVAILABLE;
+        }
+    }
+
+    /**
+     * The named field, declared by the class or one of its superclasses, made accessible
+     */
+    static Field field(Class<?> clazz, String name) throws NoSuchFieldException {
+        for(Class<?> c = clazz;c!=null;c=c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                // try the superclass
+            }
+        }
+        throw new NoSuchFieldException(clazz.getName() + "." + name);
+    }
+}
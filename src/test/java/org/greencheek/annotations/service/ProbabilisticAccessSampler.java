@@ -0,0 +1,21 @@
+package org.greencheek.annotations.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Records an access with the given probability, using the thread's own random number generator.
+ */
+public class ProbabilisticAccessSampler implements AccessSampler {
+
+    private final double probability;
+
+    public ProbabilisticAccessSampler(double probability) {
+        if(probability<=0 || probability>1) throw new IllegalArgumentException("probability must be in the range (0,1]");
+        this.probability = probability;
+    }
+
+    @Override
+    public boolean shouldRecord() {
+        return ThreadLocalRandom.current().nextDouble() < probability;
+    }
+}
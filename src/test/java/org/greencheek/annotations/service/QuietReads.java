@@ -0,0 +1,87 @@
+package org.greencheek.annotations.service;
+
+import com.google.common.base.Ticker;
+import com.google.common.base.Throwables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Reads the value cached for a key without recording the access, as ConcurrentLinkedHashMap.getQuietly
+ * does; so the read never touches the cache's recency queue.
+ *
+ * Guava (14) has no such read, so it is made through the LocalCache's package private getEntry and
+ * getLiveValue: the same lookup of the segment's table that a get makes, less the recordRead.  The
+ * methods are found by reflection once, when the reader is created.  If they are not there (another
+ * version of guava) a warning is logged and every read returns null, so the caller reads through the
+ * cache instead, and the access is recorded.
+ */
+abstract class QuietReads {
+
+    private static Logger log = LoggerFactory.getLogger(QuietReads.class);
+
+    private static final QuietReads UNAVAILABLE = new QuietReads() {
+        @Override
+        Object get(Object key) {
+            return null;
+        }
+    };
+
+    /**
+     * @return the live value for the key; or null if it is absent, still loading, or has expired
+     */
+    abstract Object get(Object key);
+
+    /**
+     * @param localCache the LocalCache behind a guava cache, i.e. cache.asMap()
+     */
+    static QuietReads ofGuavaCache(Map<?,?> localCache) {
+        try {
+            Class<?> type = localCache.getClass();
+            Method getEntry = method(type,"getEntry",Object.class);
+            Method getLiveValue = method(type,"getLiveValue",getEntry.getReturnType(),long.class);
+            final Ticker ticker = (Ticker) PendingAccesses.field(type,"ticker").get(localCache);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final MethodHandle entry = lookup.unreflect(getEntry).bindTo(localCache)
+                    .asType(MethodType.methodType(Object.class,Object.class));
+            final MethodHandle liveValue = lookup.unreflect(getLiveValue).bindTo(localCache)
+                    .asType(MethodType.methodType(Object.class,Object.class,long.class));
+            return new QuietReads() {
+                @Override
+                Object get(Object key) {
+                    try {
+                        Object e = (Object) entry.invokeExact(key);
+                        return e==null ? null : (Object) liveValue.invokeExact(e,ticker.read());
+                    } catch (Throwable t) {
+                        throw Throwables.propagate(t);
+                    }
+                }
+            };
+        } catch (Exception e) {
+            log.warn("Unable to read {} without recording the access: {}",localCache.getClass().getName(),e.toString());
+            return UNAVAILABLE;
+        }
+    }
+
+    /**
+     * The named method, declared by the class or one of its superclasses, made accessible
+     */
+    private static Method method(Class<?> clazz, String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+        for(Class<?> c = clazz;c!=null;c=c.getSuperclass()) {
+            try {
+                Method method = c.getDeclaredMethod(name,parameterTypes);
+                method.setAccessible(true);
+                return method;
+            } catch (NoSuchMethodException e) {
+                // try the superclass
+            }
+        }
+        throw new NoSuchMethodException(clazz.getName() + "." + name);
+    }
+}
@@ -0,0 +1,140 @@
+package org.greencheek.annotations.service;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The requests, misses, loads, load time and evictions of a reader.
+ *
+ * Requests are counted on every read, so each thread counts its own in a cell only it writes, with a plain
+ * increment; no atomic instruction on the hit path.  The cells are summed when read, so the total may lag
+ * the threads' latest requests.  A cell is dropped once its thread has finished, and its count kept, when
+ * the next thread starts counting or the stats are read.
+ *
+ * The misses, loads and evictions are counted in stripes, so that missing threads do not contend on one
+ * counter.  A thread counts into the stripe its id hashes to (as the read buffers of
+ * StripedReadBufferAnnotationReader are chosen); each stripe is padded to its own pair of cache lines.
+ *
+ * Hits are not counted; they are the requests that were not misses.
+ */
+public class ReaderStatsCounter {
+
+    static final int NUMBER_OF_STRIPES = ceilingNextPowerOfTwo(Runtime.getRuntime().availableProcessors() * 2);
+    static final int STRIPE_MASK = NUMBER_OF_STRIPES - 1;
+
+    private static final int MISSES = 1;
+    private static final int LOADS = 2;
+    private static final int LOAD_NANOS = 3;
+    private static final int EVICTIONS = 4;
+    // longs per stripe; 128 bytes, so neighbouring stripes are not in adjacent (prefetched) lines either
+    private static final int STRIDE = 16;
+
+    // the first stripe starts a stride in, away from the array header
+    private final AtomicLongArray cells = new AtomicLongArray((NUMBER_OF_STRIPES + 1) * STRIDE);
+
+    private final ThreadLocal<RequestCell> requestCell = new ThreadLocal<RequestCell>() {
+        @Override
+        protected RequestCell initialValue() {
+            return addRequestCell();
+        }
+    };
+    // guarded by requestCells
+    private final List<RequestCell> requestCells = new ArrayList<RequestCell>();
+    private long finishedThreadRequests;
+
+    public void recordRequest() {
+        requestCell.get().requests++;
+    }
+
+    public void recordMiss() {
+        cells.getAndIncrement(stripe() + MISSES);
+    }
+
+    /**
+     * A load, either for a miss or a refresh, that took the given nanoseconds
+     */
+    public void recordLoad(long nanos) {
+        int stripe = stripe();
+        cells.getAndIncrement(stripe + LOADS);
+        cells.getAndAdd(stripe + LOAD_NANOS,nanos);
+    }
+
+    public void recordEviction() {
+        cells.getAndIncrement(stripe() + EVICTIONS);
+    }
+
+    public AnnotationReaderStats snapshot(long size) {
+        long requests = requests();
+        long misses = sum(MISSES);
+        return new AnnotationReaderStats(Math.max(0,requests - misses),misses,sum(LOADS),sum(LOAD_NANOS),sum(EVICTIONS),size);
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for(int i=1;i<=NUMBER_OF_STRIPES;i++) {
+            sum += cells.get((i * STRIDE) + counter);
+        }
+        return sum;
+    }
+
+    private RequestCell addRequestCell() {
+        RequestCell cell = new RequestCell(Thread.currentThread());
+        synchronized (requestCells) {
+            removeFinishedThreads();
+            requestCells.add(cell);
+        }
+        return cell;
+    }
+
+    private long requests() {
+        synchronized (requestCells) {
+            removeFinishedThreads();
+            long requests = finishedThreadRequests;
+            for(RequestCell cell : requestCells) {
+                requests += cell.requests;
+            }
+            return requests;
+        }
+    }
+
+    // guarded by requestCells
+    private void removeFinishedThreads() {
+        Iterator<RequestCell> it = requestCells.iterator();
+        while(it.hasNext()) {
+            RequestCell cell = it.next();
+            Thread owner = cell.owner.get();
+            // a thread's writes are visible once it is seen to have finished
+            if(owner==null || !owner.isAlive()) {
+                finishedThreadRequests += cell.requests;
+                it.remove();
+            }
+        }
+    }
+
+    private static int stripe() {
+        int hash = (int) Thread.currentThread().getId();
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return ((hash & STRIPE_MASK) + 1) * STRIDE;
+    }
+
+    private static int ceilingNextPowerOfTwo(int x) {
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    }
+
+    /**
+     * Written only by its thread
+     */
+    private static final class RequestCell {
+        final WeakReference<Thread> owner;
+        long requests;
+
+        RequestCell(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.greencheek.annotations.service;
+
+/**
+ * Records every access, which is the default behaviour of the guava cache.
+ */
+public class RecordAllAccessSampler implements AccessSampler {
+
+    @Override
+    public boolean shouldRecord() {
+        return true;
+    }
+}
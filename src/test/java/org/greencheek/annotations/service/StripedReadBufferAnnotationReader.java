@@ -0,0 +1,250 @@
+package org.greencheek.annotations.service;
+
+import javax.management.ObjectName;
+import java.lang.annotation.Annotation;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU bounded annotation cache, that records reads into a fixed number of fixed size
+ * ring buffers (one per stripe), rather than an unbounded queue.
+ *
+ * When a stripe's buffer is full the read is simply not recorded.  The LRU ordering
+ * is therefore approximate, but the memory used for access bookkeeping is constant:
+ * NUMBER_OF_BUFFERS * BUFFER_SIZE references, no matter how many threads are reading.
+ */
+public class StripedReadBufferAnnotationReader implements InstrumentedAnnotationReader, BufferedAnnotationReader {
+
+    static final int NUMBER_OF_BUFFERS = ceilingNextPowerOfTwo(Runtime.getRuntime().availableProcessors() * 4);
+    static final int BUFFER_MASK = NUMBER_OF_BUFFERS - 1;
+
+    static final int BUFFER_SIZE = 32;
+    static final int BUFFER_INDEX_MASK = BUFFER_SIZE - 1;
+
+    // Number of pending reads in a buffer that triggers an attempt to drain all the buffers
+    static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+
+    private static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+    private final ConcurrentMap<Class,AnnotationIndex> cache;
+    private final ReadBuffer[] buffers;
+    private final int maximumSize;
+
+    // guarded by evictionLock
+    private final LinkedHashMap<Class,Boolean> accessOrder;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // null when stats are not recorded
+    private final ReaderStatsCounter stats;
+    // registered once the reader is constructed; null when stats are not recorded, or could not be registered
+    private volatile ObjectName statsName;
+
+    public StripedReadBufferAnnotationReader() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public StripedReadBufferAnnotationReader(int maximumSize) {
+        this(maximumSize,false);
+    }
+
+    /**
+     * A reader that counts its hits, misses, loads and evictions; available from stats() and over jmx
+     * while the reader is open
+     */
+    public static StripedReadBufferAnnotationReader withStats(int maximumSize) {
+        StripedReadBufferAnnotationReader reader = new StripedReadBufferAnnotationReader(maximumSize,true);
+        // not until it's constructed, so jmx never sees a partly constructed reader
+        reader.statsName = AnnotationReaderMXBeans.register(reader);
+        return reader;
+    }
+
+    private StripedReadBufferAnnotationReader(int maximumSize, boolean recordStats) {
+        if(maximumSize<1) throw new IllegalArgumentException("maximumSize must be greater than 0");
+        this.maximumSize = maximumSize;
+        this.cache = new ConcurrentHashMap<Class,AnnotationIndex>(maximumSize,0.75f,64);
+        this.accessOrder = new LinkedHashMap<Class,Boolean>(maximumSize,0.75f,true);
+        this.buffers = new ReadBuffer[NUMBER_OF_BUFFERS];
+        for(int i=0;i<NUMBER_OF_BUFFERS;i++) {
+            buffers[i] = new ReadBuffer();
+        }
+        this.stats = recordStats ? new ReaderStatsCounter() : null;
+    }
+
+    @Override
+    public Annotation[] getAnnotations(final Class clazz) {
+        return index(clazz).getAnnotations();
+    }
+
+    @Override
+    public <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType) {
+        return index(clazz).getAnnotation(annotationType);
+    }
+
+    @Override
+    public boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType) {
+        return index(clazz).isAnnotationPresent(annotationType);
+    }
+
+    private AnnotationIndex index(final Class clazz) {
+        if(stats!=null) stats.recordRequest();
+        AnnotationIndex annos = cache.get(clazz);
+        if(annos!=null) {
+            recordRead(clazz);
+            return annos;
+        }
+
+        annos = load(clazz);
+        AnnotationIndex prev = cache.putIfAbsent(clazz,annos);
+        if(prev!=null) {
+            recordRead(clazz);
+            return prev;
+        }
+
+        recordWrite(clazz);
+        return annos;
+    }
+
+    private AnnotationIndex load(Class clazz) {
+        if(stats==null) return AnnotationIndex.forClass(clazz);
+
+        stats.recordMiss();
+        long start = System.nanoTime();
+        AnnotationIndex annos = AnnotationIndex.forClass(clazz);
+        stats.recordLoad(System.nanoTime() - start);
+        return annos;
+    }
+
+    /**
+     * Records the read in the calling thread's stripe.  If the stripe is full the read is dropped.
+     */
+    private void recordRead(Class clazz) {
+        ReadBuffer buffer = buffers[bufferIndex()];
+        long writeCount = buffer.writeCount.get();
+        long pending = writeCount - buffer.readCount;
+
+        if(pending<BUFFER_SIZE && buffer.writeCount.compareAndSet(writeCount,writeCount+1)) {
+            buffer.slots.lazySet((int)(writeCount & BUFFER_INDEX_MASK),clazz);
+            pending++;
+        }
+
+        if(pending>=DRAIN_THRESHOLD) {
+            tryToDrainBuffers();
+        }
+    }
+
+    /**
+     * Writes are rare (a miss), so they take the eviction lock and are never dropped.
+     */
+    private void recordWrite(Class clazz) {
+        evictionLock.lock();
+        try {
+            drainBuffers();
+            accessOrder.put(clazz,Boolean.TRUE);
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void tryToDrainBuffers() {
+        if(evictionLock.tryLock()) {
+            try {
+                drainBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    // guarded by evictionLock
+    private void drainBuffers() {
+        for(ReadBuffer buffer : buffers) {
+            drainBuffer(buffer);
+        }
+    }
+
+    // guarded by evictionLock
+    private void drainBuffer(ReadBuffer buffer) {
+        long readCount = buffer.readCount;
+        long writeCount = buffer.writeCount.get();
+
+        for(;readCount<writeCount;readCount++) {
+            int index = (int)(readCount & BUFFER_INDEX_MASK);
+            Class clazz = buffer.slots.get(index);
+            if(clazz==null) {
+                // the writer has claimed the slot, but not yet published to it
+                break;
+            }
+            buffer.slots.lazySet(index,null);
+            // only reorders; a key that has been evicted is not re-added
+            accessOrder.get(clazz);
+        }
+        buffer.readCount = readCount;
+    }
+
+    // guarded by evictionLock
+    private void evict() {
+        Iterator<Class> lru = accessOrder.keySet().iterator();
+        while(accessOrder.size()>maximumSize && lru.hasNext()) {
+            Class victim = lru.next();
+            lru.remove();
+            cache.remove(victim);
+            if(stats!=null) stats.recordEviction();
+        }
+    }
+
+    private static int bufferIndex() {
+        int hash = (int) Thread.currentThread().getId();
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return hash & BUFFER_MASK;
+    }
+
+    private static int ceilingNextPowerOfTwo(int x) {
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    }
+
+    @Override
+    public AnnotationReaderStats stats() {
+        return stats==null ? null : stats.snapshot(cache.size());
+    }
+
+    /**
+     * The reads waiting in the buffers; never more than NUMBER_OF_BUFFERS * BUFFER_SIZE
+     */
+    @Override
+    public long pendingAccesses() {
+        long pending = 0;
+        for(ReadBuffer buffer : buffers) {
+            pending += buffer.writeCount.get() - buffer.readCount;
+        }
+        return pending;
+    }
+
+    public void close() {
+        AnnotationReaderMXBeans.unregister(statsName);
+        evictionLock.lock();
+        try {
+            drainBuffers();
+            accessOrder.clear();
+            cache.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class ReadBuffer {
+        final AtomicLong writeCount = new AtomicLong();
+        final AtomicReferenceArray<Class> slots = new AtomicReferenceArray<Class>(BUFFER_SIZE);
+
+        // written only under the evictionLock
+        volatile long readCount;
+    }
+
+}
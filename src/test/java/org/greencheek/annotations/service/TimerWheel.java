@@ -0,0 +1,217 @@
+package org.greencheek.annotations.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical timer wheel, that holds nodes in buckets by the time they expire.
+ *
+ * Each level of the wheel is an array of buckets, where each bucket covers a span of time:
+ * about a second on the first level, a minute on the next, then an hour, a day, and an
+ * overflow bucket for anything beyond.  A node is placed in the finest level that its time
+ * to expiry fits in.  Scheduling and descheduling are O(1).  Advancing the wheel only visits
+ * the buckets whose span has passed; nodes in them that are not yet due are cascaded down to
+ * a finer level, so each node is moved at most once per level.
+ *
+ * Not thread safe; the caller guards the wheel with a lock.
+ */
+class TimerWheel {
+
+    static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+    static final long[] SPANS = {
+            ceilingPowerOfTwo(TimeUnit.SECONDS.toNanos(1)),  // 1.07s
+            ceilingPowerOfTwo(TimeUnit.MINUTES.toNanos(1)),  // 1.14m
+            ceilingPowerOfTwo(TimeUnit.HOURS.toNanos(1)),    // 1.22h
+            ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),     // 1.63d
+            BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)), // 6.5d
+    };
+    static final int[] SHIFT = {
+            Long.numberOfTrailingZeros(SPANS[0]),
+            Long.numberOfTrailingZeros(SPANS[1]),
+            Long.numberOfTrailingZeros(SPANS[2]),
+            Long.numberOfTrailingZeros(SPANS[3]),
+            Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    private final Node[][] wheel;
+    private long nanos;
+
+    TimerWheel(long nanos) {
+        this.nanos = nanos;
+        this.wheel = new Node[BUCKETS.length][];
+        for(int i=0;i<wheel.length;i++) {
+            wheel[i] = new Node[BUCKETS[i]];
+            for(int j=0;j<wheel[i].length;j++) {
+                wheel[i][j] = new Node();
+            }
+        }
+    }
+
+    /**
+     * Places the node in the bucket for its expiry time
+     */
+    void schedule(Node node) {
+        Node sentinel = findBucket(node.expiresAt);
+        node.previousInWheel = sentinel.previousInWheel;
+        node.nextInWheel = sentinel;
+        sentinel.previousInWheel.nextInWheel = node;
+        sentinel.previousInWheel = node;
+    }
+
+    void deschedule(Node node) {
+        if(node.nextInWheel!=null) {
+            node.nextInWheel.previousInWheel = node.previousInWheel;
+            node.previousInWheel.nextInWheel = node.nextInWheel;
+            node.nextInWheel = null;
+            node.previousInWheel = null;
+        }
+    }
+
+    /**
+     * Advances the wheel to the given time, removing the nodes that have expired and adding them to the given list
+     */
+    void advance(long currentTimeNanos, List<Node> expired) {
+        long previousTimeNanos = nanos;
+        nanos = currentTimeNanos;
+
+        for(int i=0;i<SHIFT.length;i++) {
+            long previousTicks = previousTimeNanos >>> SHIFT[i];
+            long currentTicks = currentTimeNanos >>> SHIFT[i];
+            if(currentTicks - previousTicks <= 0L) {
+                break;
+            }
+            expire(i,previousTicks,currentTicks - previousTicks,expired);
+        }
+    }
+
+    /**
+     * Empties the buckets of the level that the wheel has turned past, expiring or cascading their nodes
+     */
+    private void expire(int level, long previousTicks, long delta, List<Node> expired) {
+        Node[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(1 + delta, buckets.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+
+        for(int i=start;i<end;i++) {
+            Node sentinel = buckets[i & mask];
+            Node node = sentinel.nextInWheel;
+            sentinel.previousInWheel = sentinel;
+            sentinel.nextInWheel = sentinel;
+
+            while(node!=sentinel) {
+                Node next = node.nextInWheel;
+                node.previousInWheel = null;
+                node.nextInWheel = null;
+
+                if(node.expiresAt - nanos <= 0L) {
+                    expired.add(node);
+                } else {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    /**
+     * @return the scheduled node that expires soonest, or null if there are none.  A coarser level's
+     *         current bucket can hold a node that is due before any on the finer levels, so the
+     *         earliest node of each level is found, and the earliest of those taken.
+     */
+    Node nearest() {
+        Node nearest = null;
+        for(int level=0;level<wheel.length;level++) {
+            Node candidate = nearest(level);
+            if(candidate!=null && (nearest==null || candidate.expiresAt - nearest.expiresAt < 0L)) {
+                nearest = candidate;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * The level is searched from its current bucket onwards, for the first bucket holding a node due in
+     * this turn of the level.  A node a turn or more ahead shares its bucket with the nodes of this turn
+     * (i.e. a node 64 buckets ahead on the first level is in the current bucket), but is due after every
+     * other node of the level; so it is skipped, and only taken if the level holds nothing sooner.
+     *
+     * @return the node of the level that expires soonest, or null if the level is empty
+     */
+    private Node nearest(int level) {
+        Node[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        long currentTicks = nanos >>> SHIFT[level];
+        Node wrapped = null;
+        for(int i=0;i<buckets.length;i++) {
+            Node sentinel = buckets[(int) ((currentTicks + i) & mask)];
+            Node nearest = null;
+            for(Node node = sentinel.nextInWheel;node!=sentinel;node = node.nextInWheel) {
+                if((node.expiresAt >>> SHIFT[level]) - (currentTicks + i) > 0L) {
+                    if(wrapped==null || node.expiresAt - wrapped.expiresAt < 0L) wrapped = node;
+                } else if(nearest==null || node.expiresAt - nearest.expiresAt < 0L) {
+                    nearest = node;
+                }
+            }
+            if(nearest!=null) return nearest;
+        }
+        return wrapped;
+    }
+
+    void clear() {
+        for(Node[] buckets : wheel) {
+            for(Node sentinel : buckets) {
+                Node node = sentinel.nextInWheel;
+                while(node!=sentinel) {
+                    Node next = node.nextInWheel;
+                    node.previousInWheel = null;
+                    node.nextInWheel = null;
+                    node = next;
+                }
+                sentinel.previousInWheel = sentinel;
+                sentinel.nextInWheel = sentinel;
+            }
+        }
+    }
+
+    private Node findBucket(long expiresAt) {
+        long duration = expiresAt - nanos;
+        int length = wheel.length - 1;
+        for(int i=0;i<length;i++) {
+            if(duration < SPANS[i + 1]) {
+                long ticks = expiresAt >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+
+    private static long ceilingPowerOfTwo(long x) {
+        return 1L << -Long.numberOfLeadingZeros(x - 1);
+    }
+
+    /**
+     * An entry held in the wheel.  A node that is not scheduled has no links.
+     */
+    static class Node {
+        // written under the caller's lock, before the node is published
+        long expiresAt;
+
+        Node previousInWheel;
+        Node nextInWheel;
+
+        /**
+         * Creates a bucket's sentinel, that links to itself
+         */
+        Node() {
+            previousInWheel = this;
+            nextInWheel = this;
+        }
+
+        Node(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+    }
+}
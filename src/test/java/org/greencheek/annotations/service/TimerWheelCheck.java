@@ -0,0 +1,131 @@
+package org.greencheek.annotations.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that TimerWheel.nearest() finds the node that expires soonest: when a node on a coarser level is
+ * due before the nodes on the finer ones, when a node a whole turn ahead shares the current bucket, and
+ * against a scan of every node, over random schedules, deschedules and advances.  Exits with 1 if any
+ * check fails.
+ * <pre>
+ *   TimerWheelCheck [random-operations] [seed]
+ * </pre>
+ */
+public class TimerWheelCheck {
+
+    // bounds the scan that each operation is checked against
+    private static final int MAXIMUM_SCHEDULED = 1000;
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        int operations = args.length>0 ? Integer.parseInt(args[0]) : 1000000;
+        long seed = args.length>1 ? Long.parseLong(args[1]) : System.nanoTime();
+
+        coarserLevelDueFirst();
+        wrappedNodeInCurrentBucket();
+        overflowLevel();
+        random(operations,seed);
+
+        if(failures>0) {
+            System.err.println(failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    /**
+     * A node on the second level, in its current bucket, is due before a node scheduled on the first level since
+     */
+    private static void coarserLevelDueFirst() {
+        TimerWheel wheel = new TimerWheel(0);
+        TimerWheel.Node coarse = new TimerWheel.Node(TimerWheel.SPANS[1] + 5 * TimerWheel.SPANS[0]);
+        wheel.schedule(coarse);
+
+        // the first level turns, the second does not; so the coarse node stays where it is
+        List<TimerWheel.Node> expired = new ArrayList<TimerWheel.Node>();
+        long now = TimerWheel.SPANS[1] - 1;
+        wheel.advance(now,expired);
+        TimerWheel.Node fine = new TimerWheel.Node(now + 10 * TimerWheel.SPANS[0]);
+        wheel.schedule(fine);
+
+        check("coarser level due first",expired.isEmpty() && wheel.nearest()==coarse);
+    }
+
+    /**
+     * A node 64 buckets ahead, in the current bucket of the first level, is due after one 5 buckets ahead
+     */
+    private static void wrappedNodeInCurrentBucket() {
+        long now = TimerWheel.SPANS[0] / 2;
+        TimerWheel wheel = new TimerWheel(now);
+        TimerWheel.Node wrapped = new TimerWheel.Node(now + 64 * TimerWheel.SPANS[0] - TimerWheel.SPANS[0] / 4);
+        TimerWheel.Node sooner = new TimerWheel.Node(now + 5 * TimerWheel.SPANS[0]);
+        wheel.schedule(wrapped);
+        wheel.schedule(sooner);
+        check("wrapped node skipped",wheel.nearest()==sooner);
+
+        wheel.deschedule(sooner);
+        check("wrapped node taken when alone",wheel.nearest()==wrapped);
+    }
+
+    private static void overflowLevel() {
+        TimerWheel wheel = new TimerWheel(0);
+        check("empty wheel",wheel.nearest()==null);
+
+        TimerWheel.Node later = new TimerWheel.Node(3 * TimerWheel.SPANS[4]);
+        TimerWheel.Node sooner = new TimerWheel.Node(2 * TimerWheel.SPANS[4]);
+        wheel.schedule(later);
+        wheel.schedule(sooner);
+        check("overflow level",wheel.nearest()==sooner);
+    }
+
+    /**
+     * Random operations, with nearest() compared to the earliest of all the scheduled nodes after each
+     */
+    private static void random(int operations, long seed) {
+        Random random = new Random(seed);
+        // far enough from overflowing
+        long now = random.nextLong() >>> 2;
+        TimerWheel wheel = new TimerWheel(now);
+        List<TimerWheel.Node> scheduled = new ArrayList<TimerWheel.Node>();
+        List<TimerWheel.Node> expired = new ArrayList<TimerWheel.Node>();
+
+        for(int i=0;i<operations;i++) {
+            int operation = random.nextInt(10);
+            if((operation<5 && scheduled.size()<MAXIMUM_SCHEDULED) || scheduled.isEmpty()) {
+                // durations spread over all the levels
+                long duration = 1 + (long) (Math.pow(random.nextDouble(),4) * 2 * TimerWheel.SPANS[4]);
+                TimerWheel.Node node = new TimerWheel.Node(now + duration);
+                wheel.schedule(node);
+                scheduled.add(node);
+            } else if(operation<7) {
+                TimerWheel.Node node = scheduled.remove(random.nextInt(scheduled.size()));
+                wheel.deschedule(node);
+            } else {
+                // mostly by a few minutes or less, at most by about an hour
+                now += 1 + (long) (Math.pow(random.nextDouble(),3) * TimerWheel.SPANS[2]);
+                wheel.advance(now,expired);
+                for(TimerWheel.Node node : expired) scheduled.remove(node);
+                expired.clear();
+            }
+
+            TimerWheel.Node earliest = null;
+            for(TimerWheel.Node node : scheduled) {
+                if(earliest==null || node.expiresAt - earliest.expiresAt < 0L) earliest = node;
+            }
+            TimerWheel.Node nearest = wheel.nearest();
+            if((earliest==null) != (nearest==null) || (earliest!=null && earliest.expiresAt!=nearest.expiresAt)) {
+                check("random operation " + i + " (seed " + seed + ")",false);
+                return;
+            }
+        }
+        check("random, " + operations + " operations (seed " + seed + ")",true);
+    }
+
+    private static void check(String name, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        if(!passed) failures++;
+    }
+}
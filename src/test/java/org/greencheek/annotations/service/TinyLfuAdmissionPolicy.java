@@ -0,0 +1,25 @@
+package org.greencheek.annotations.service;
+
+/**
+ * TinyLFU: the candidate only replaces the cache's victim if it has been seen more often
+ * recently than the victim.  A one off scan over many classes therefore cannot flush the
+ * frequently used classes out of the cache.
+ */
+public class TinyLfuAdmissionPolicy implements AdmissionPolicy {
+
+    private final FrequencySketch sketch;
+
+    public TinyLfuAdmissionPolicy(int maximumSize) {
+        sketch = new FrequencySketch(maximumSize);
+    }
+
+    @Override
+    public void record(Object key) {
+        sketch.increment(key.hashCode());
+    }
+
+    @Override
+    public boolean admit(Object candidate, Object victim) {
+        return sketch.frequency(candidate.hashCode()) > sketch.frequency(victim.hashCode());
+    }
+}
@@ -0,0 +1,279 @@
+package org.greencheek.annotations.service;
+
+import javax.management.ObjectName;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded annotation cache that evicts in write order: either the least recently added entry
+ * (EvictionOrder.INSERTION), or the entry nearest to expiring (EvictionOrder.EXPIRATION).
+ *
+ * Because neither order depends on reads, a read is a ConcurrentHashMap get and, when entries
+ * expire, a comparison of the entry's expiry time with System.nanoTime().  A read writes nothing
+ * that is shared, so there is nothing to buffer or drain for a hit; a class's annotations do not
+ * change, so the access recency that CachingAnnotationReader records on every read buys nothing here.
+ *
+ * Misses take a lock, under which the entry is added to the insertion queue and scheduled on a
+ * hierarchical TimerWheel.  The wheel is advanced on each miss, removing the entries that have
+ * expired.  An expired entry that is read before then is treated as a miss.
+ */
+public class WriteOrderedAnnotationReader implements InstrumentedAnnotationReader {
+
+    // entries are never held longer than this, so that expiry times do not overflow
+    private static final long MAXIMUM_EXPIRY_NANOS = Long.MAX_VALUE >>> 1;
+
+    private final ConcurrentMap<Class,Entry> cache;
+    private final int maximumSize;
+    private final EvictionOrder evictionOrder;
+    private final AnnotationExpiry expiry;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // guarded by evictionLock; null when entries do not expire
+    private final TimerWheel timerWheel;
+    // guarded by evictionLock; the insertion queue, when evicting in insertion order
+    private Entry head;
+    private Entry tail;
+    // guarded by evictionLock; the number of entries, kept so that ConcurrentHashMap.size() is not needed on each miss
+    private int size;
+    // guarded by evictionLock
+    private final List<TimerWheel.Node> expired = new ArrayList<TimerWheel.Node>();
+
+    // null when stats are not recorded
+    private final ReaderStatsCounter stats;
+    // registered once the reader is constructed; null when stats are not recorded, or could not be registered
+    private volatile ObjectName statsName;
+
+    public WriteOrderedAnnotationReader() {
+        this(new Builder());
+    }
+
+    private WriteOrderedAnnotationReader(Builder builder) {
+        this.maximumSize = builder.maximumSize;
+        this.evictionOrder = builder.evictionOrder;
+        this.expiry = builder.expiry;
+        this.cache = new ConcurrentHashMap<Class,Entry>(builder.maximumSize,0.75f,64);
+        this.timerWheel = expiry==null ? null : new TimerWheel(System.nanoTime());
+        this.stats = builder.recordStats ? new ReaderStatsCounter() : null;
+    }
+
+    @Override
+    public Annotation[] getAnnotations(Class clazz) {
+        return index(clazz).getAnnotations();
+    }
+
+    @Override
+    public <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType) {
+        return index(clazz).getAnnotation(annotationType);
+    }
+
+    @Override
+    public boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType) {
+        return index(clazz).isAnnotationPresent(annotationType);
+    }
+
+    private AnnotationIndex index(Class clazz) {
+        if(stats!=null) stats.recordRequest();
+        Entry entry = cache.get(clazz);
+        if(entry!=null && (expiry==null || entry.expiresAt - System.nanoTime() > 0L)) {
+            return entry.annotations;
+        }
+        return load(clazz);
+    }
+
+    private AnnotationIndex load(Class clazz) {
+        long start = stats==null ? 0 : System.nanoTime();
+        AnnotationIndex annotations = AnnotationIndex.forClass(clazz);
+        if(stats!=null) {
+            stats.recordMiss();
+            stats.recordLoad(System.nanoTime() - start);
+        }
+        long expiresAfter = expiry==null ? 0 : Math.min(Math.max(expiry.expireAfterWriteNanos(clazz),0),MAXIMUM_EXPIRY_NANOS);
+
+        evictionLock.lock();
+        try {
+            long now = System.nanoTime();
+            expireEntries(now);
+
+            Entry existing = cache.get(clazz);
+            if(existing!=null) {
+                if(expiry==null || existing.expiresAt - now > 0L) {
+                    return existing.annotations;
+                }
+                remove(existing);
+            }
+
+            Entry entry = new Entry(clazz,annotations,now + expiresAfter);
+            if(timerWheel!=null) timerWheel.schedule(entry);
+            if(evictionOrder==EvictionOrder.INSERTION) linkLast(entry);
+            cache.put(clazz,entry);
+            size++;
+
+            evict();
+            return annotations;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // guarded by evictionLock
+    private void expireEntries(long now) {
+        if(timerWheel==null) return;
+
+        timerWheel.advance(now,expired);
+        for(TimerWheel.Node node : expired) {
+            remove((Entry) node);
+            if(stats!=null) stats.recordEviction();
+        }
+        expired.clear();
+    }
+
+    // guarded by evictionLock
+    private void evict() {
+        while(size>maximumSize) {
+            Entry victim = evictionOrder==EvictionOrder.INSERTION ? head : (Entry) timerWheel.nearest();
+            if(victim==null) return;
+            remove(victim);
+            if(stats!=null) stats.recordEviction();
+        }
+    }
+
+    // guarded by evictionLock
+    private void remove(Entry entry) {
+        if(cache.remove(entry.key,entry)) size--;
+        if(timerWheel!=null) timerWheel.deschedule(entry);
+        if(evictionOrder==EvictionOrder.INSERTION) unlink(entry);
+    }
+
+    // guarded by evictionLock
+    private void linkLast(Entry entry) {
+        entry.previous = tail;
+        if(tail==null) {
+            head = entry;
+        } else {
+            tail.next = entry;
+        }
+        tail = entry;
+    }
+
+    // guarded by evictionLock
+    private void unlink(Entry entry) {
+        if(entry.previous==null) {
+            if(head!=entry) return;
+            head = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if(entry.next==null) {
+            tail = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+        entry.previous = null;
+        entry.next = null;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public AnnotationReaderStats stats() {
+        return stats==null ? null : stats.snapshot(cache.size());
+    }
+
+    public void close() {
+        AnnotationReaderMXBeans.unregister(statsName);
+        evictionLock.lock();
+        try {
+            cache.clear();
+            if(timerWheel!=null) timerWheel.clear();
+            head = null;
+            tail = null;
+            size = 0;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry extends TimerWheel.Node {
+        final Class key;
+        final AnnotationIndex annotations;
+
+        // guarded by evictionLock
+        Entry previous;
+        Entry next;
+
+        Entry(Class key, AnnotationIndex annotations, long expiresAt) {
+            super(expiresAt);
+            this.key = key;
+            this.annotations = annotations;
+        }
+    }
+
+    public static class Builder {
+        private int maximumSize = 1000;
+        private EvictionOrder evictionOrder = EvictionOrder.INSERTION;
+        private AnnotationExpiry expiry = null;
+        private boolean recordStats = false;
+
+        public Builder maximumSize(int maximumSize) {
+            if(maximumSize<1) throw new IllegalArgumentException("maximumSize must be greater than 0");
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        public Builder evictionOrder(EvictionOrder evictionOrder) {
+            if(evictionOrder==null) throw new IllegalArgumentException("evictionOrder must not be null");
+            this.evictionOrder = evictionOrder;
+            return this;
+        }
+
+        /**
+         * Expire every entry the given duration after it is written
+         */
+        public Builder expireAfterWrite(long duration, TimeUnit unit) {
+            if(duration<0) throw new IllegalArgumentException("duration must not be negative");
+            final long nanos = unit.toNanos(duration);
+            this.expiry = new AnnotationExpiry() {
+                @Override
+                public long expireAfterWriteNanos(Class clazz) {
+                    return nanos;
+                }
+            };
+            return this;
+        }
+
+        /**
+         * Expire each entry after the duration given for its class
+         */
+        public Builder expiry(AnnotationExpiry expiry) {
+            this.expiry = expiry;
+            return this;
+        }
+
+        /**
+         * Count the hits, misses, loads and evictions; available from stats() and over jmx
+         * while the reader is open
+         */
+        public Builder recordStats() {
+            this.recordStats = true;
+            return this;
+        }
+
+        public WriteOrderedAnnotationReader build() {
+            if(evictionOrder==EvictionOrder.EXPIRATION && expiry==null) {
+                throw new IllegalArgumentException("EXPIRATION eviction order requires expireAfterWrite or an expiry");
+            }
+            WriteOrderedAnnotationReader reader = new WriteOrderedAnnotationReader(this);
+            // not until it's constructed, so jmx never sees a partly constructed reader
+            if(recordStats) reader.statsName = AnnotationReaderMXBeans.register(reader);
+            return reader;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.greencheek.annotations.simulator;
+
+/**
+ * Evicts in insertion order, ignoring reads: WriteOrderedAnnotationReader with EvictionOrder.INSERTION.
+ */
+public class FifoPolicy implements SimulatedPolicy {
+
+    // Entry (with the timer wheel and insertion links) and the ConcurrentHashMap entry and table slot
+    static final int BYTES_PER_ENTRY = 72;
+
+    private final KeyLists keys;
+    private final int capacity;
+    private long evictions;
+
+    public FifoPolicy(int capacity, int keySpace) {
+        this.capacity = capacity;
+        this.keys = new KeyLists(keySpace,1);
+    }
+
+    @Override
+    public boolean record(int key) {
+        if(keys.contains(key)) {
+            return true;
+        }
+        keys.linkLast(0,key);
+        if(keys.size(0)>capacity) {
+            keys.unlink(keys.first(0));
+            evictions++;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return keys.size(0);
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public int bytesPerEntry() {
+        return BYTES_PER_ENTRY;
+    }
+
+    @Override
+    public long fixedBytes() {
+        return 0;
+    }
+}
@@ -0,0 +1,86 @@
+package org.greencheek.annotations.simulator;
+
+import java.util.Arrays;
+
+/**
+ * Doubly linked lists of int keys, held in arrays indexed by key rather than in nodes; so a
+ * policy's ordering costs no allocation, and its membership test is an array read.  A key is
+ * in at most one of the lists.
+ */
+final class KeyLists {
+
+    static final int NONE = -1;
+
+    private final int[] previous;
+    private final int[] next;
+    // the list each key is in, or NONE
+    private final int[] listOf;
+
+    private final int[] heads;
+    private final int[] tails;
+    private final int[] sizes;
+
+    KeyLists(int keySpace, int lists) {
+        previous = new int[keySpace];
+        next = new int[keySpace];
+        listOf = new int[keySpace];
+        Arrays.fill(listOf,NONE);
+
+        heads = new int[lists];
+        tails = new int[lists];
+        sizes = new int[lists];
+        Arrays.fill(heads,NONE);
+        Arrays.fill(tails,NONE);
+    }
+
+    boolean contains(int key) {
+        return listOf[key]!=NONE;
+    }
+
+    int first(int list) {
+        return heads[list];
+    }
+
+    int size(int list) {
+        return sizes[list];
+    }
+
+    void linkLast(int list, int key) {
+        int tail = tails[list];
+        previous[key] = tail;
+        next[key] = NONE;
+        if(tail==NONE) {
+            heads[list] = key;
+        } else {
+            next[tail] = key;
+        }
+        tails[list] = key;
+        listOf[key] = list;
+        sizes[list]++;
+    }
+
+    void unlink(int key) {
+        int list = listOf[key];
+        int before = previous[key];
+        int after = next[key];
+        if(before==NONE) {
+            heads[list] = after;
+        } else {
+            next[before] = after;
+        }
+        if(after==NONE) {
+            tails[list] = before;
+        } else {
+            previous[after] = before;
+        }
+        listOf[key] = NONE;
+        sizes[list]--;
+    }
+
+    void moveToLast(int key) {
+        int list = listOf[key];
+        if(tails[list]==key) return;
+        unlink(key);
+        linkLast(list,key);
+    }
+}
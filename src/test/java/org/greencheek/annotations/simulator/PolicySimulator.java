@@ -0,0 +1,183 @@
+package org.greencheek.annotations.simulator;
+
+import org.greencheek.annotations.synthetic.KeyDistribution;
+import org.greencheek.annotations.trace.AccessTrace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs a sequence of keys, from an AccessTrace or a KeyDistribution, through each eviction policy
+ * at a range of capacities, single threaded, and reports the hit ratio, evictions and peak size
+ * (with an estimate of the bookkeeping memory) of each side by side; so the maximum size of a
+ * reader can be chosen from the traffic it will see, rather than picked.
+ *
+ * The policies are simulated over int keys with primitive arrays, holding no values.
+ *
+ * <pre>
+ *   PolicySimulator trace trace-file
+ *   PolicySimulator synthetic UNIFORM|ZIPFIAN|SCAN_HOT_SET key-count length
+ * </pre>
+ */
+public class PolicySimulator {
+
+    private static Logger log = LoggerFactory.getLogger(PolicySimulator.class);
+
+    public static final int[] DEFAULT_CAPACITIES = { 100, 1000, 10000, 100000, 1000000 };
+
+    // CachingAnnotationReader's concurrency level
+    static final int GUAVA_CONCURRENCY_LEVEL = 64;
+
+    public enum PolicyType {
+        GUAVA_LRU {
+            @Override
+            public SimulatedPolicy create(int capacity, int keySpace) {
+                return new SegmentedLruPolicy(capacity,keySpace,GUAVA_CONCURRENCY_LEVEL);
+            }
+        },
+        CLHM_LRU {
+            @Override
+            public SimulatedPolicy create(int capacity, int keySpace) {
+                return new LruPolicy(capacity,keySpace);
+            }
+        },
+        FIFO {
+            @Override
+            public SimulatedPolicy create(int capacity, int keySpace) {
+                return new FifoPolicy(capacity,keySpace);
+            }
+        },
+        TINY_LFU {
+            @Override
+            public SimulatedPolicy create(int capacity, int keySpace) {
+                return new TinyLfuPolicy(capacity,keySpace);
+            }
+        };
+
+        public abstract SimulatedPolicy create(int capacity, int keySpace);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] keys;
+        if(args.length==2 && args[0].equals("trace")) {
+            keys = AccessTrace.read(new File(args[1])).classIds();
+        } else if(args.length==4 && args[0].equals("synthetic")) {
+            KeyDistribution distribution = KeyDistribution.valueOf(args[1]);
+            keys = distribution.generate(Integer.parseInt(args[2]),Integer.parseInt(args[3]),new Random(1));
+        } else {
+            System.err.println("Usage: PolicySimulator trace trace-file");
+            System.err.println("       PolicySimulator synthetic UNIFORM|ZIPFIAN|SCAN_HOT_SET key-count length");
+            System.exit(1);
+            return;
+        }
+
+        log.info(String.format("%-10s %9s %12s %8s %12s %9s %12s %12s",
+                "policy","capacity","accesses","hit %","evictions","peak","peak bytes","events/s"));
+        for(Result result : simulate(keys,DEFAULT_CAPACITIES)) {
+            log.info(result.toString());
+        }
+    }
+
+    /**
+     * Simulates every policy at each capacity.  Capacities beyond the first that holds every key are skipped,
+     * as every policy then only misses on the first access of each key.
+     */
+    public static List<Result> simulate(int[] keys, int[] capacities) {
+        int keySpace = keySpace(keys);
+        List<Result> results = new ArrayList<Result>();
+        for(int capacity : capacities) {
+            for(PolicyType type : PolicyType.values()) {
+                results.add(simulate(type.name(),type.create(capacity,keySpace),capacity,keys));
+            }
+            if(capacity>=keySpace) break;
+        }
+        return results;
+    }
+
+    public static Result simulate(String name, SimulatedPolicy policy, int capacity, int[] keys) {
+        long hits = 0;
+        int peakSize = 0;
+        long start = System.nanoTime();
+        for(int key : keys) {
+            if(policy.record(key)) {
+                hits++;
+            } else if(policy.size()>peakSize) {
+                // the size only grows on a miss
+                peakSize = policy.size();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long peakBytes = policy.fixedBytes() + ((long) peakSize * policy.bytesPerEntry());
+        return new Result(name,capacity,keys.length,hits,policy.evictions(),peakSize,peakBytes,elapsed);
+    }
+
+    private static int keySpace(int[] keys) {
+        int max = -1;
+        for(int key : keys) {
+            if(key<0) throw new IllegalArgumentException("keys must not be negative");
+            if(key>max) max = key;
+        }
+        return max + 1;
+    }
+
+    public static final class Result {
+        private final String policy;
+        private final int capacity;
+        private final long accesses;
+        private final long hits;
+        private final long evictions;
+        private final int peakSize;
+        private final long peakBytes;
+        private final long elapsedNanos;
+
+        Result(String policy, int capacity, long accesses, long hits, long evictions, int peakSize, long peakBytes, long elapsedNanos) {
+            this.policy = policy;
+            this.capacity = capacity;
+            this.accesses = accesses;
+            this.hits = hits;
+            this.evictions = evictions;
+            this.peakSize = peakSize;
+            this.peakBytes = peakBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public String getPolicy() {
+            return policy;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public double getHitRatio() {
+            return accesses==0 ? 0 : (double) hits / accesses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getPeakSize() {
+            return peakSize;
+        }
+
+        public long getPeakBytes() {
+            return peakBytes;
+        }
+
+        public double getEventsPerSecond() {
+            return elapsedNanos==0 ? 0 : accesses / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-10s %9d %12d %8.2f %12d %9d %12d %12.0f",
+                    policy,capacity,accesses,getHitRatio() * 100,evictions,peakSize,peakBytes,getEventsPerSecond());
+        }
+    }
+}
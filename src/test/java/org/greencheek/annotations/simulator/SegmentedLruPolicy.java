@@ -0,0 +1,117 @@
+package org.greencheek.annotations.simulator;
+
+/**
+ * The LRU of a Guava LocalCache, as CachingAnnotationReader builds it: the maximum size is divided
+ * between the segments, each of which evicts its own least recently used entry.  So an entry can be
+ * evicted from a full segment while older entries remain in others, and the hit ratio is below that
+ * of a single LRU of the same size.
+ *
+ * The segment count follows CacheBuilder: the power of two at or above the concurrency level,
+ * reduced so that each segment can hold at least 20 entries.  A key is given a random hash, as a
+ * class's identity hash code is, then spread and mapped to a segment the way LocalCache does.
+ */
+public class SegmentedLruPolicy implements SimulatedPolicy {
+
+    // ReferenceEntry with access and write ordering, the value reference and the table slot
+    static final int BYTES_PER_ENTRY = 88;
+
+    private final KeyLists keys;
+    private final int[] segmentCapacities;
+    private final int segmentShift;
+    private final int segmentMask;
+    private int size;
+    private long evictions;
+
+    public SegmentedLruPolicy(int capacity, int keySpace, int concurrencyLevel) {
+        int segmentCount = 1;
+        int shift = 0;
+        while(segmentCount<concurrencyLevel && segmentCount * 20 <= capacity) {
+            shift++;
+            segmentCount <<= 1;
+        }
+        this.segmentShift = 32 - shift;
+        this.segmentMask = segmentCount - 1;
+
+        // as LocalCache: the remainder is spread over the first segments
+        segmentCapacities = new int[segmentCount];
+        int segmentCapacity = capacity / segmentCount + 1;
+        int remainder = capacity % segmentCount;
+        for(int i=0;i<segmentCount;i++) {
+            if(i==remainder) segmentCapacity--;
+            segmentCapacities[i] = segmentCapacity;
+        }
+
+        this.keys = new KeyLists(keySpace,segmentCount);
+    }
+
+    public int segmentCount() {
+        return segmentCapacities.length;
+    }
+
+    @Override
+    public boolean record(int key) {
+        if(keys.contains(key)) {
+            keys.moveToLast(key);
+            return true;
+        }
+
+        int segment = segmentFor(key);
+        keys.linkLast(segment,key);
+        size++;
+        if(keys.size(segment)>segmentCapacities[segment]) {
+            keys.unlink(keys.first(segment));
+            size--;
+            evictions++;
+        }
+        return false;
+    }
+
+    private int segmentFor(int key) {
+        int hash = rehash(identityHash(key));
+        // a shift of 32 is no shift in java, so a single segment is masked to 0
+        return (hash >>> segmentShift) & segmentMask;
+    }
+
+    /**
+     * A stand in for the class's identity hash code, that is random rather than sequential
+     */
+    private static int identityHash(int key) {
+        int h = key * 0x9E3779B9;
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    /**
+     * LocalCache.rehash
+     */
+    private static int rehash(int h) {
+        h += (h << 15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h << 3);
+        h ^= (h >>> 6);
+        h += (h << 2) + (h << 14);
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public int bytesPerEntry() {
+        return BYTES_PER_ENTRY;
+    }
+
+    @Override
+    public long fixedBytes() {
+        return 0;
+    }
+}
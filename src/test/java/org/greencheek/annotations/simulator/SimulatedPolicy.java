@@ -0,0 +1,31 @@
+package org.greencheek.annotations.simulator;
+
+/**
+ * An eviction policy, simulated over int keys between 0 and the key space, without holding values.
+ */
+public interface SimulatedPolicy {
+
+    /**
+     * Records an access of the key, adding it if it is not held
+     *
+     * @return true if the key was held
+     */
+    boolean record(int key);
+
+    /**
+     * @return the number of keys held
+     */
+    int size();
+
+    long evictions();
+
+    /**
+     * @return the approximate bytes the real cache uses for the bookkeeping of each entry, excluding the key and value
+     */
+    int bytesPerEntry();
+
+    /**
+     * @return the approximate bytes the real cache uses regardless of the number of entries, i.e. for a sketch
+     */
+    long fixedBytes();
+}
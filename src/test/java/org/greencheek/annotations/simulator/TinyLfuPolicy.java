@@ -0,0 +1,77 @@
+package org.greencheek.annotations.simulator;
+
+import org.greencheek.annotations.service.FrequencySketch;
+
+/**
+ * An LRU with TinyLFU admission, as the readers are given a TinyLfuAdmissionPolicy: once full, a
+ * new key only replaces the LRU victim if the FrequencySketch has seen it more often.
+ */
+public class TinyLfuPolicy implements SimulatedPolicy {
+
+    private final KeyLists keys;
+    private final FrequencySketch sketch;
+    private final int capacity;
+    private long evictions;
+    private long rejections;
+
+    public TinyLfuPolicy(int capacity, int keySpace) {
+        this.capacity = capacity;
+        this.keys = new KeyLists(keySpace,1);
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    @Override
+    public boolean record(int key) {
+        sketch.increment(key);
+        if(keys.contains(key)) {
+            keys.moveToLast(key);
+            return true;
+        }
+
+        if(keys.size(0)<capacity) {
+            keys.linkLast(0,key);
+            return false;
+        }
+
+        int victim = keys.first(0);
+        if(sketch.frequency(key) > sketch.frequency(victim)) {
+            keys.unlink(victim);
+            keys.linkLast(0,key);
+            evictions++;
+        } else {
+            rejections++;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of misses that were not admitted
+     */
+    public long rejections() {
+        return rejections;
+    }
+
+    @Override
+    public int size() {
+        return keys.size(0);
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public int bytesPerEntry() {
+        return LruPolicy.BYTES_PER_ENTRY;
+    }
+
+    /**
+     * The sketch's table: a long for each entry of capacity, rounded up to a power of two
+     */
+    @Override
+    public long fixedBytes() {
+        long tableSize = capacity<=1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        return tableSize * 8;
+    }
+}
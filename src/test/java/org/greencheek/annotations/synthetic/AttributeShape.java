@@ -0,0 +1,29 @@
+package org.greencheek.annotations.synthetic;
+
+/**
+ * The members that each generated annotation type declares, and so the values that are parsed
+ * for each annotation on a generated class.
+ */
+public enum AttributeShape {
+    /**
+     * No members
+     */
+    MARKER,
+
+    /**
+     * String value(); int number();
+     */
+    SCALAR,
+
+    /**
+     * String[] names(); int[] numbers(); each of ARRAY_LENGTH values
+     */
+    ARRAY,
+
+    /**
+     * String value(); long[] range(); Class type(); RetentionPolicy policy();
+     */
+    MIXED;
+
+    static final int ARRAY_LENGTH = 4;
+}
@@ -0,0 +1,132 @@
+package org.greencheek.annotations.synthetic;
+
+import java.util.Random;
+
+/**
+ * Generates sequences of key ids, between 0 and keyCount, to read a SyntheticClassPopulation with.
+ * The sequences are generated up front, so generating them is not part of what is measured.
+ */
+public enum KeyDistribution {
+    /**
+     * Every key is equally likely
+     */
+    UNIFORM {
+        @Override
+        public int[] generate(int keyCount, int length, Random random) {
+            int[] keys = new int[length];
+            for(int i=0;i<length;i++) {
+                keys[i] = random.nextInt(keyCount);
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * The frequency of a key is inversely proportional to its rank, with an exponent of ZIPFIAN_EXPONENT.
+     * The ranks are shuffled, so the popular keys are not the first ids.
+     */
+    ZIPFIAN {
+        @Override
+        public int[] generate(int keyCount, int length, Random random) {
+            int[] ranks = shuffledIds(keyCount,random);
+            double theta = ZIPFIAN_EXPONENT;
+            double zetaN = zeta(keyCount,theta);
+            double zeta2 = zeta(2,theta);
+            double alpha = 1.0 / (1.0 - theta);
+            double eta = (1 - Math.pow(2.0 / keyCount,1 - theta)) / (1 - zeta2 / zetaN);
+
+            int[] keys = new int[length];
+            for(int i=0;i<length;i++) {
+                double u = random.nextDouble();
+                double uz = u * zetaN;
+                int rank;
+                if(uz<1.0) {
+                    rank = 0;
+                } else if(uz<1.0 + Math.pow(0.5,theta)) {
+                    rank = 1;
+                } else {
+                    rank = (int) (keyCount * Math.pow(eta * u - eta + 1,alpha));
+                }
+                keys[i] = ranks[Math.min(rank,keyCount - 1)];
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * Half of the reads are of a hot set of HOT_SET_PERCENTAGE of the keys; the other half scan,
+     * in order, through the rest of the keys
+     */
+    SCAN_HOT_SET {
+        @Override
+        public int[] generate(int keyCount, int length, Random random) {
+            int[] ids = shuffledIds(keyCount,random);
+            int hotSetSize = Math.max(1,(keyCount * HOT_SET_PERCENTAGE) / 100);
+            int scanSize = keyCount - hotSetSize;
+
+            int[] keys = new int[length];
+            int scan = 0;
+            for(int i=0;i<length;i++) {
+                if(scanSize==0 || random.nextBoolean()) {
+                    keys[i] = ids[random.nextInt(hotSetSize)];
+                } else {
+                    keys[i] = ids[hotSetSize + scan];
+                    if(++scan==scanSize) scan = 0;
+                }
+            }
+            return keys;
+        }
+    };
+
+    static final double ZIPFIAN_EXPONENT = 0.99;
+    static final int HOT_SET_PERCENTAGE = 1;
+
+    /**
+     * @return a sequence of length key ids, each between 0 and keyCount
+     */
+    public abstract int[] generate(int keyCount, int length, Random random);
+
+    /**
+     * Replaces the given proportion of the reads with reads of keys that are not otherwise read.
+     * The miss keys are read in turn, from firstMissKey to firstMissKey + missKeyCount, so each is a
+     * miss as long as more than the reader's maximum size of them are read before it comes round again.
+     *
+     * @return a copy of the keys, with the misses mixed in
+     */
+    public static int[] withMisses(int[] keys, double missRatio, int firstMissKey, int missKeyCount, Random random) {
+        if(missRatio<0 || missRatio>1) throw new IllegalArgumentException("missRatio must be between 0 and 1");
+        if(missRatio>0 && missKeyCount<1) throw new IllegalArgumentException("missKeyCount must be greater than 0");
+
+        int[] mixed = keys.clone();
+        int miss = 0;
+        for(int i=0;i<mixed.length;i++) {
+            if(random.nextDouble()<missRatio) {
+                mixed[i] = firstMissKey + miss;
+                if(++miss==missKeyCount) miss = 0;
+            }
+        }
+        return mixed;
+    }
+
+    private static int[] shuffledIds(int keyCount, Random random) {
+        int[] ids = new int[keyCount];
+        for(int i=0;i<keyCount;i++) {
+            ids[i] = i;
+        }
+        for(int i=keyCount-1;i>0;i--) {
+            int j = random.nextInt(i + 1);
+            int id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+        return ids;
+    }
+
+    private static double zeta(int n, double theta) {
+        double sum = 0;
+        for(int i=1;i<=n;i++) {
+            sum += 1 / Math.pow(i,theta);
+        }
+        return sum;
+    }
+}
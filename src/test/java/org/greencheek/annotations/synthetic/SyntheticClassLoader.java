@@ -0,0 +1,50 @@
+package org.greencheek.annotations.synthetic;
+
+/**
+ * Defines the generated annotation types and classes on demand, from their names.  All other
+ * classes are loaded by the parent.
+ */
+class SyntheticClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final SyntheticClassWriter writer;
+    private final int classCount;
+    private final int annotationTypeCount;
+
+    SyntheticClassLoader(ClassLoader parent, SyntheticClassWriter writer, int classCount, int annotationTypeCount) {
+        super(parent);
+        this.writer = writer;
+        this.classCount = classCount;
+        this.annotationTypeCount = annotationTypeCount;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if(name.startsWith(SyntheticClassWriter.CLASS_PREFIX)) {
+            int id = idOf(name,SyntheticClassWriter.CLASS_PREFIX,classCount);
+            return define(name,writer.annotatedClass(id));
+        }
+        if(name.startsWith(SyntheticClassWriter.ANNOTATION_PREFIX)) {
+            int id = idOf(name,SyntheticClassWriter.ANNOTATION_PREFIX,annotationTypeCount);
+            return define(name,writer.annotationType(id));
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    private Class<?> define(String name, byte[] classFile) {
+        return defineClass(name,classFile,0,classFile.length);
+    }
+
+    private static int idOf(String name, String prefix, int count) throws ClassNotFoundException {
+        try {
+            int id = Integer.parseInt(name.substring(prefix.length()));
+            if(id>=0 && id<count) return id;
+        } catch (NumberFormatException e) {
+            // not a generated name
+        }
+        throw new ClassNotFoundException(name);
+    }
+}
@@ -0,0 +1,109 @@
+package org.greencheek.annotations.synthetic;
+
+/**
+ * A population of generated, annotated classes, defined at runtime by their own class loader, so
+ * that the readers can be run over thousands to millions of distinct keys rather than one class.
+ *
+ * Each class has annotationsPerClass annotations, of distinct types taken from annotationTypeCount
+ * generated annotation types, whose members are given by the AttributeShape.  Classes are defined
+ * when first asked for; defineAll() defines them up front, so that class loading is not part of
+ * what is measured.
+ *
+ * The classes, and the class loader, are unloaded once the population is no longer referenced.
+ */
+public class SyntheticClassPopulation {
+
+    private final int classCount;
+    private final SyntheticClassLoader classLoader;
+
+    private SyntheticClassPopulation(Builder builder) {
+        this.classCount = builder.classCount;
+        SyntheticClassWriter writer = new SyntheticClassWriter(builder.annotationTypeCount,builder.annotationsPerClass,builder.attributeShape);
+        this.classLoader = new SyntheticClassLoader(SyntheticClassPopulation.class.getClassLoader(),writer,
+                builder.classCount,builder.annotationTypeCount);
+    }
+
+    public int size() {
+        return classCount;
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * @return the class with the given id, defining it if need be
+     */
+    public Class classAt(int id) {
+        if(id<0 || id>=classCount) throw new IllegalArgumentException("id must be between 0 and " + (classCount - 1));
+        try {
+            return Class.forName(SyntheticClassWriter.CLASS_PREFIX + id,false,classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return every class of the population, indexed by id
+     */
+    public Class[] defineAll() {
+        Class[] classes = new Class[classCount];
+        for(int i=0;i<classCount;i++) {
+            classes[i] = classAt(i);
+        }
+        return classes;
+    }
+
+    /**
+     * @return the classes for the given ids, i.e. a key sequence from KeyDistribution
+     */
+    public Class[] classesFor(int[] ids) {
+        Class[] classes = defineAll();
+        Class[] keys = new Class[ids.length];
+        for(int i=0;i<ids.length;i++) {
+            keys[i] = classes[ids[i]];
+        }
+        return keys;
+    }
+
+    public static class Builder {
+        private int classCount = 10000;
+        private int annotationTypeCount = 8;
+        private int annotationsPerClass = 2;
+        private AttributeShape attributeShape = AttributeShape.SCALAR;
+
+        public Builder classCount(int classCount) {
+            if(classCount<1) throw new IllegalArgumentException("classCount must be greater than 0");
+            this.classCount = classCount;
+            return this;
+        }
+
+        public Builder annotationTypeCount(int annotationTypeCount) {
+            if(annotationTypeCount<1) throw new IllegalArgumentException("annotationTypeCount must be greater than 0");
+            this.annotationTypeCount = annotationTypeCount;
+            return this;
+        }
+
+        /**
+         * The number of annotations on each class; at most the number of annotation types, as a type is not repeated
+         */
+        public Builder annotationsPerClass(int annotationsPerClass) {
+            if(annotationsPerClass<0) throw new IllegalArgumentException("annotationsPerClass must not be negative");
+            this.annotationsPerClass = annotationsPerClass;
+            return this;
+        }
+
+        public Builder attributeShape(AttributeShape attributeShape) {
+            if(attributeShape==null) throw new IllegalArgumentException("attributeShape must not be null");
+            this.attributeShape = attributeShape;
+            return this;
+        }
+
+        public SyntheticClassPopulation build() {
+            if(annotationsPerClass>annotationTypeCount) {
+                throw new IllegalArgumentException("annotationsPerClass must not be greater than annotationTypeCount");
+            }
+            return new SyntheticClassPopulation(this);
+        }
+    }
+}
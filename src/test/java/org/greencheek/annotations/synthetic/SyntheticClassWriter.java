@@ -0,0 +1,287 @@
+package org.greencheek.annotations.synthetic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the class files of the generated annotation types and annotated classes.  Only what is
+ * needed for Class.getAnnotations is written: the classes have no fields or methods, and the
+ * annotation types only their abstract member methods and @Retention(RUNTIME).
+ *
+ * Annotation type n is named ANNOTATION_PREFIX + n; class n is named CLASS_PREFIX + n and is
+ * annotated with the annotationsPerClass types that follow n (mod the number of types), each with
+ * member values derived from n.
+ */
+class SyntheticClassWriter {
+
+    static final String PACKAGE = "org.greencheek.annotations.synthetic.generated.";
+    static final String ANNOTATION_PREFIX = PACKAGE + "SyntheticAnnotation";
+    static final String CLASS_PREFIX = PACKAGE + "SyntheticClass";
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int JAVA_7_MAJOR_VERSION = 51;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_SUPER = 0x0020;
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+    private static final int ACC_ANNOTATION = 0x2000;
+
+    private final int annotationTypeCount;
+    private final int annotationsPerClass;
+    private final AttributeShape shape;
+
+    SyntheticClassWriter(int annotationTypeCount, int annotationsPerClass, AttributeShape shape) {
+        this.annotationTypeCount = annotationTypeCount;
+        this.annotationsPerClass = annotationsPerClass;
+        this.shape = shape;
+    }
+
+    byte[] annotationType(int id) {
+        ConstantPool pool = new ConstantPool();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(body);
+        try {
+            int thisClass = pool.classInfo(internalName(ANNOTATION_PREFIX + id));
+            int superClass = pool.classInfo("java/lang/Object");
+            int annotationInterface = pool.classInfo("java/lang/annotation/Annotation");
+
+            out.writeShort(ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT | ACC_ANNOTATION);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(annotationInterface);
+            out.writeShort(0); // fields
+
+            String[][] members = members();
+            out.writeShort(members.length);
+            for(String[] member : members) {
+                out.writeShort(ACC_PUBLIC | ACC_ABSTRACT);
+                out.writeShort(pool.utf8(member[0]));
+                out.writeShort(pool.utf8(member[1]));
+                out.writeShort(0);
+            }
+
+            // @Retention(RetentionPolicy.RUNTIME)
+            ByteArrayOutputStream annotations = new ByteArrayOutputStream(32);
+            DataOutputStream annotationsOut = new DataOutputStream(annotations);
+            annotationsOut.writeShort(1);
+            annotationsOut.writeShort(pool.utf8("Ljava/lang/annotation/Retention;"));
+            annotationsOut.writeShort(1);
+            annotationsOut.writeShort(pool.utf8("value"));
+            writeEnum(annotationsOut,pool,"Ljava/lang/annotation/RetentionPolicy;","RUNTIME");
+            writeAttributes(out,pool,annotations.toByteArray());
+
+            return classFile(pool,body.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    byte[] annotatedClass(int id) {
+        ConstantPool pool = new ConstantPool();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(body);
+        try {
+            int thisClass = pool.classInfo(internalName(CLASS_PREFIX + id));
+            int superClass = pool.classInfo("java/lang/Object");
+
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(0); // methods
+
+            ByteArrayOutputStream annotations = new ByteArrayOutputStream(64 * annotationsPerClass);
+            DataOutputStream annotationsOut = new DataOutputStream(annotations);
+            annotationsOut.writeShort(annotationsPerClass);
+            for(int i=0;i<annotationsPerClass;i++) {
+                int type = (id + i) % annotationTypeCount;
+                annotationsOut.writeShort(pool.utf8('L' + internalName(ANNOTATION_PREFIX + type) + ';'));
+                writeValues(annotationsOut,pool,id,i);
+            }
+            writeAttributes(out,pool,annotations.toByteArray());
+
+            return classFile(pool,body.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the name and descriptor of each member
+     */
+    private String[][] members() {
+        switch (shape) {
+            case MARKER:
+                return new String[0][];
+            case SCALAR:
+                return new String[][] { { "value", "()Ljava/lang/String;" }, { "number", "()I" } };
+            case ARRAY:
+                return new String[][] { { "names", "()[Ljava/lang/String;" }, { "numbers", "()[I" } };
+            default:
+                return new String[][] {
+                        { "value", "()Ljava/lang/String;" },
+                        { "range", "()[J" },
+                        { "type", "()Ljava/lang/Class;" },
+                        { "policy", "()Ljava/lang/annotation/RetentionPolicy;" } };
+        }
+    }
+
+    private void writeValues(DataOutputStream out, ConstantPool pool, int id, int annotation) throws IOException {
+        switch (shape) {
+            case MARKER:
+                out.writeShort(0);
+                break;
+            case SCALAR:
+                out.writeShort(2);
+                out.writeShort(pool.utf8("value"));
+                writeString(out,pool,"class-" + id + "-" + annotation);
+                out.writeShort(pool.utf8("number"));
+                writeInt(out,pool,id + annotation);
+                break;
+            case ARRAY:
+                out.writeShort(2);
+                out.writeShort(pool.utf8("names"));
+                out.writeByte('[');
+                out.writeShort(AttributeShape.ARRAY_LENGTH);
+                for(int i=0;i<AttributeShape.ARRAY_LENGTH;i++) {
+                    writeString(out,pool,"name-" + id + "-" + i);
+                }
+                out.writeShort(pool.utf8("numbers"));
+                out.writeByte('[');
+                out.writeShort(AttributeShape.ARRAY_LENGTH);
+                for(int i=0;i<AttributeShape.ARRAY_LENGTH;i++) {
+                    writeInt(out,pool,id + i);
+                }
+                break;
+            default:
+                out.writeShort(4);
+                out.writeShort(pool.utf8("value"));
+                writeString(out,pool,"class-" + id + "-" + annotation);
+                out.writeShort(pool.utf8("range"));
+                out.writeByte('[');
+                out.writeShort(2);
+                out.writeByte('J');
+                out.writeShort(pool.longInfo(id));
+                out.writeByte('J');
+                out.writeShort(pool.longInfo(id + (long) Integer.MAX_VALUE));
+                out.writeShort(pool.utf8("type"));
+                out.writeByte('c');
+                out.writeShort(pool.utf8((id & 1)==0 ? "Ljava/lang/String;" : "Ljava/lang/Object;"));
+                out.writeShort(pool.utf8("policy"));
+                writeEnum(out,pool,"Ljava/lang/annotation/RetentionPolicy;",(id & 1)==0 ? "RUNTIME" : "CLASS");
+                break;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, ConstantPool pool, String value) throws IOException {
+        out.writeByte('s');
+        out.writeShort(pool.utf8(value));
+    }
+
+    private static void writeInt(DataOutputStream out, ConstantPool pool, int value) throws IOException {
+        out.writeByte('I');
+        out.writeShort(pool.intInfo(value));
+    }
+
+    private static void writeEnum(DataOutputStream out, ConstantPool pool, String typeDescriptor, String constant) throws IOException {
+        out.writeByte('e');
+        out.writeShort(pool.utf8(typeDescriptor));
+        out.writeShort(pool.utf8(constant));
+    }
+
+    /**
+     * Writes the class's attributes: only RuntimeVisibleAnnotations
+     */
+    private static void writeAttributes(DataOutputStream out, ConstantPool pool, byte[] annotations) throws IOException {
+        out.writeShort(1);
+        out.writeShort(pool.utf8("RuntimeVisibleAnnotations"));
+        out.writeInt(annotations.length);
+        out.write(annotations);
+    }
+
+    private static byte[] classFile(ConstantPool pool, byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pool.size() + body.length + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(0);
+        out.writeShort(JAVA_7_MAJOR_VERSION);
+        pool.writeTo(out);
+        out.write(body);
+        return bytes.toByteArray();
+    }
+
+    private static String internalName(String className) {
+        return className.replace('.','/');
+    }
+
+    /**
+     * The constant pool of one class file, that shares equal entries
+     */
+    private static final class ConstantPool {
+        private static final int CONSTANT_UTF8 = 1;
+        private static final int CONSTANT_INTEGER = 3;
+        private static final int CONSTANT_LONG = 5;
+        private static final int CONSTANT_CLASS = 7;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String,Integer> indexes = new HashMap<String,Integer>();
+        private int count = 1;
+
+        int utf8(String value) throws IOException {
+            Integer index = indexes.get("U" + value);
+            if(index!=null) return index;
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+            return add("U" + value,1);
+        }
+
+        int classInfo(String internalName) throws IOException {
+            Integer index = indexes.get("C" + internalName);
+            if(index!=null) return index;
+            int nameIndex = utf8(internalName);
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(nameIndex);
+            return add("C" + internalName,1);
+        }
+
+        int intInfo(int value) throws IOException {
+            Integer index = indexes.get("I" + value);
+            if(index!=null) return index;
+            out.writeByte(CONSTANT_INTEGER);
+            out.writeInt(value);
+            return add("I" + value,1);
+        }
+
+        int longInfo(long value) throws IOException {
+            Integer index = indexes.get("J" + value);
+            if(index!=null) return index;
+            out.writeByte(CONSTANT_LONG);
+            out.writeLong(value);
+            // a long takes two entries
+            return add("J" + value,2);
+        }
+
+        private int add(String key, int entries) {
+            int index = count;
+            count += entries;
+            indexes.put(key,index);
+            return index;
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream classFile) throws IOException {
+            classFile.writeShort(count);
+            classFile.write(bytes.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.greencheek.annotations.timeseries;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of a file written by TimeSeriesWriter, including one that is still being written:
+ * each poll() passes the records appended since the last to the listener, and stops at the end of what
+ * has been written so far.  Once the writer has closed the file, isClosed() is true.
+ */
+public class TimeSeriesReader implements Closeable {
+
+    public interface Listener {
+        void series(int seriesId, String name, String unit);
+
+        void sample(int seriesId, long epochMillis, long value);
+    }
+
+    private final FileChannel channel;
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> units = new ArrayList<String>();
+
+    private MappedByteBuffer chunk;
+    private long chunkOffset;
+    private int position;
+    private boolean closed;
+
+    public TimeSeriesReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+        if(channel.size()<TimeSeriesWriter.CHUNK_SIZE) {
+            channel.close();
+            throw new IOException(file + " is not a time series file");
+        }
+        chunk = channel.map(FileChannel.MapMode.READ_ONLY,0,TimeSeriesWriter.CHUNK_SIZE);
+        if(chunk.getInt(0)!=TimeSeriesWriter.MAGIC || chunk.getInt(4)!=TimeSeriesWriter.VERSION
+                || chunk.getInt(8)!=TimeSeriesWriter.CHUNK_SIZE) {
+            channel.close();
+            throw new IOException(file + " is not a version " + TimeSeriesWriter.VERSION + " time series file");
+        }
+        position = TimeSeriesWriter.HEADER_SIZE;
+    }
+
+    /**
+     * @return the number of records read
+     */
+    public int poll(Listener listener) throws IOException {
+        int records = 0;
+        while(!closed) {
+            int length = chunk.getInt(position);
+            if(length==0) break;
+            if(length==TimeSeriesWriter.END_OF_CHUNK) {
+                if(!nextChunk()) break;
+                continue;
+            }
+
+            byte type = chunk.get(position + 4);
+            if(type==TimeSeriesWriter.SAMPLE) {
+                listener.sample(chunk.getShort(position + 5),chunk.getLong(position + 7),chunk.getLong(position + 15));
+            } else if(type==TimeSeriesWriter.SERIES) {
+                readSeries(listener);
+            } else if(type==TimeSeriesWriter.CLOSED) {
+                closed = true;
+            } else {
+                throw new IOException("Unknown record type " + type + " at " + (chunkOffset + position));
+            }
+            position += length;
+            records++;
+        }
+        return records;
+    }
+
+    private void readSeries(Listener listener) {
+        int seriesId = chunk.getShort(position + 5);
+        int offset = position + 7;
+        int nameLength = chunk.getShort(offset);
+        String name = string(offset + 2,nameLength);
+        offset += 2 + nameLength;
+        String unit = string(offset + 2,chunk.getShort(offset));
+        while(names.size()<=seriesId) {
+            names.add(null);
+            units.add(null);
+        }
+        names.set(seriesId,name);
+        units.set(seriesId,unit);
+        listener.series(seriesId,name,unit);
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        for(int i=0;i<length;i++) bytes[i] = chunk.get(offset + i);
+        return new String(bytes,TimeSeriesWriter.UTF_8);
+    }
+
+    /**
+     * @return false if the writer has not yet extended the file to the next chunk
+     */
+    private boolean nextChunk() throws IOException {
+        long next = chunkOffset + TimeSeriesWriter.CHUNK_SIZE;
+        if(channel.size()<next + TimeSeriesWriter.CHUNK_SIZE) return false;
+        chunk = channel.map(FileChannel.MapMode.READ_ONLY,next,TimeSeriesWriter.CHUNK_SIZE);
+        chunkOffset = next;
+        position = 0;
+        return true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public String name(int seriesId) {
+        return names.get(seriesId);
+    }
+
+    public String unit(int seriesId) {
+        return units.get(seriesId);
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunk = null;
+        channel.close();
+    }
+}
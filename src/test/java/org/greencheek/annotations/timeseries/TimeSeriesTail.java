@@ -0,0 +1,101 @@
+package org.greencheek.annotations.timeseries;
+
+import org.greencheek.spark.StreamingSpark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows a time series file, that a run is writing, printing each sample as csv (epoch millis, series,
+ * unit, value) until the run closes it; or renders each series, of what has been written so far, as a
+ * sparkline.
+ * <pre>
+ *   TimeSeriesTail time-series-file [tail|render] [poll-millis]
+ * </pre>
+ *
+ * Rendering reads the file once, into a StreamingSpark for each series; so no more than the columns of
+ * each series are held in memory.
+ */
+public class TimeSeriesTail {
+
+    private static final int COLUMNS = 200;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length<1) {
+            System.err.println("Usage: TimeSeriesTail time-series-file [tail|render] [poll-millis]");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        boolean render = args.length>1 && "render".equals(args[1]);
+        long pollMillis = args.length>2 ? Long.parseLong(args[2]) : 250;
+
+        if(render) {
+            render(file);
+        } else {
+            tail(file,pollMillis);
+        }
+    }
+
+    public static void tail(File file, long pollMillis) throws IOException, InterruptedException {
+        final TimeSeriesReader reader = new TimeSeriesReader(file);
+        try {
+            System.out.println("epoch_millis,series,unit,value");
+            TimeSeriesReader.Listener csv = new TimeSeriesReader.Listener() {
+                @Override
+                public void series(int seriesId, String name, String unit) {
+                }
+
+                @Override
+                public void sample(int seriesId, long epochMillis, long value) {
+                    System.out.println(epochMillis + "," + reader.name(seriesId) + "," + reader.unit(seriesId) + "," + value);
+                }
+            };
+            while(!reader.isClosed()) {
+                if(reader.poll(csv)==0) Thread.sleep(pollMillis);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static void render(File file) throws IOException {
+        final List<StreamingSpark> graphs = new ArrayList<StreamingSpark>();
+        final TimeSeriesReader reader = new TimeSeriesReader(file);
+        try {
+            reader.poll(new TimeSeriesReader.Listener() {
+                @Override
+                public void series(int seriesId, String name, String unit) {
+                    while(graphs.size()<=seriesId) graphs.add(new StreamingSpark(COLUMNS));
+                }
+
+                @Override
+                public void sample(int seriesId, long epochMillis, long value) {
+                    graphs.get(seriesId).add(toInt(value,reader.unit(seriesId)));
+                }
+            });
+
+            for(int i=0;i<graphs.size();i++) {
+                StreamingSpark graph = graphs.get(i);
+                if(graph.getCount()==0) continue;
+                System.out.println(reader.name(i) + " in " + displayUnit(reader.unit(i)) + " (min:" + graph.getMin()
+                        + "/max:" + graph.getMax() + ", " + graph.getCount() + " samples)");
+                System.out.println(graph.graphToString());
+                for(String axis : graph.axisToStringArray(4)) System.out.println(axis);
+                System.out.println();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String displayUnit(String unit) {
+        return "bytes".equals(unit) ? "mb" : unit;
+    }
+
+    private static int toInt(long value, String unit) {
+        long scaled = "bytes".equals(unit) ? value / 1024 / 1024 : value;
+        return (int) Math.max(Integer.MIN_VALUE,Math.min(Integer.MAX_VALUE,scaled));
+    }
+}
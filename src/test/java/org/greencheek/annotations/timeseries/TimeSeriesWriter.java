@@ -0,0 +1,158 @@
+package org.greencheek.annotations.timeseries;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Appends time series samples (i.e. of the HeapMonitor, GCMonitor and the throughput of each run) to a
+ * file, as they are taken, through a memory mapped chunk of the file; so a long run holds none of its
+ * samples in memory, a crash of the jvm loses none that were appended (they are in the page cache), and
+ * TimeSeriesReader can tail the file while the run is still going.
+ *
+ * The file is laid out as:
+ * <pre>
+ *   header:  magic, version, chunk size
+ *   records: length, type, body
+ *            SERIES: series id, name, unit
+ *            SAMPLE: series id, epoch millis, value
+ *            CLOSED
+ * </pre>
+ *
+ * The file grows a CHUNK_SIZE at a time, zero filled; a record does not span chunks, the rest of a chunk
+ * that a record does not fit in is marked with a length of END_OF_CHUNK.  The body of a record is written
+ * before its length, so a reader that finds a length of 0 has reached the end of what is written so far.
+ *
+ * Appends are synchronized; there are few writers (a sampling thread, the gc notification thread, the
+ * harness) that append every few milliseconds at most.
+ */
+public class TimeSeriesWriter implements Closeable {
+
+    static final int MAGIC = 0x54534552;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int CHUNK_SIZE = 16 * 1024 * 1024;
+
+    static final int END_OF_CHUNK = -1;
+    static final byte SERIES = 1;
+    static final byte SAMPLE = 2;
+    static final byte CLOSED = 3;
+    // length, type
+    static final int RECORD_HEADER_SIZE = 5;
+    // series id, epoch millis, value
+    static final int SAMPLE_SIZE = RECORD_HEADER_SIZE + 2 + 8 + 8;
+    static final int MAXIMUM_SERIES = Short.MAX_VALUE;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final FileChannel channel;
+
+    // guarded by this
+    private final Map<String,Integer> seriesIds = new HashMap<String,Integer>();
+    private MappedByteBuffer chunk;
+    private long chunkOffset;
+    private boolean closed;
+
+    public TimeSeriesWriter(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(),StandardOpenOption.CREATE,StandardOpenOption.READ,
+                StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+        chunkOffset = 0;
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE,0,CHUNK_SIZE);
+        chunk.putInt(MAGIC).putInt(VERSION).putInt(CHUNK_SIZE);
+    }
+
+    /**
+     * @return the id of the series with the given name, that is defined in the file the first time it is asked for
+     */
+    public synchronized int series(String name, String unit) {
+        Integer id = seriesIds.get(name);
+        if(id!=null) return id;
+        if(seriesIds.size()==MAXIMUM_SERIES) throw new IllegalStateException("More than " + MAXIMUM_SERIES + " series");
+        if(closed) return -1;
+
+        byte[] nameBytes = name.getBytes(UTF_8);
+        byte[] unitBytes = unit.getBytes(UTF_8);
+        int length = RECORD_HEADER_SIZE + 2 + 2 + nameBytes.length + 2 + unitBytes.length;
+        if(nameBytes.length>Short.MAX_VALUE || unitBytes.length>Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The name and unit of a series must be less than 32k bytes");
+        }
+
+        id = seriesIds.size();
+        int start = reserve(length);
+        chunk.position(start + 4);
+        chunk.put(SERIES).putShort(id.shortValue())
+                .putShort((short) nameBytes.length).put(nameBytes)
+                .putShort((short) unitBytes.length).put(unitBytes);
+        commit(start,length);
+        seriesIds.put(name,id);
+        return id;
+    }
+
+    public synchronized void append(int seriesId, long epochMillis, long value) {
+        if(closed || seriesId<0) return;
+        int start = reserve(SAMPLE_SIZE);
+        chunk.put(start + 4,SAMPLE);
+        chunk.putShort(start + 5,(short) seriesId);
+        chunk.putLong(start + 7,epochMillis);
+        chunk.putLong(start + 15,value);
+        commit(start,SAMPLE_SIZE);
+    }
+
+    public void append(String series, String unit, long epochMillis, long value) {
+        append(series(series,unit),epochMillis,value);
+    }
+
+    /**
+     * Writes the mapped pages to the disk, so the samples also survive a crash of the os
+     */
+    public synchronized void force() {
+        if(!closed) chunk.force();
+    }
+
+    /**
+     * Marks the file as complete, so a reader that is tailing it stops
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) return;
+        int start = reserve(RECORD_HEADER_SIZE);
+        chunk.put(start + 4,CLOSED);
+        commit(start,RECORD_HEADER_SIZE);
+        closed = true;
+        chunk.force();
+        chunk = null;
+        channel.close();
+    }
+
+    /**
+     * @return the position in the chunk of a record of the given length, mapping the next chunk if it does not fit
+     */
+    private int reserve(int length) {
+        int position = chunk.position();
+        if(position + length + 4 > CHUNK_SIZE) {
+            chunk.putInt(position,END_OF_CHUNK);
+            try {
+                chunkOffset += CHUNK_SIZE;
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE,chunkOffset,CHUNK_SIZE);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to extend the time series file",e);
+            }
+            position = 0;
+        }
+        return position;
+    }
+
+    /**
+     * Writes the length, once the body is written, so the record is visible to a reader
+     */
+    private void commit(int start, int length) {
+        chunk.putInt(start,length);
+        chunk.position(start + length);
+    }
+}
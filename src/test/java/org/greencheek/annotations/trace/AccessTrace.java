@@ -0,0 +1,260 @@
+package org.greencheek.annotations.trace;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An access trace read from a file written by AccessTraceWriter, held as primitive arrays of the
+ * class id, recording thread id and nanotime of each access, in time order.
+ *
+ * The blocks of each thread are already in time order, so they are merged, rather than sorted.
+ */
+public class AccessTrace {
+
+    private static Logger log = LoggerFactory.getLogger(AccessTrace.class);
+
+    private final String[] classNames;
+    private final int[] classIds;
+    private final int[] threadIds;
+    private final long[] nanoTimes;
+    private final int threadCount;
+
+    AccessTrace(String[] classNames, int[] classIds, int[] threadIds, long[] nanoTimes, int threadCount) {
+        this.classNames = classNames;
+        this.classIds = classIds;
+        this.threadIds = threadIds;
+        this.nanoTimes = nanoTimes;
+        this.threadCount = threadCount;
+    }
+
+    public static AccessTrace read(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+        try {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+            int size = mapped.capacity();
+            if(size<AccessTraceWriter.HEADER_SIZE + AccessTraceWriter.TRAILER_SIZE
+                    || mapped.getInt(0)!=AccessTraceWriter.MAGIC
+                    || mapped.getInt(4)!=AccessTraceWriter.VERSION
+                    || mapped.getInt(size - 4)!=AccessTraceWriter.MAGIC) {
+                throw new IOException(file + " is not a complete version " + AccessTraceWriter.VERSION + " access trace");
+            }
+            int dictionaryOffset = (int) mapped.getLong(size - AccessTraceWriter.TRAILER_SIZE);
+
+            String[] classNames = readDictionary(mapped,dictionaryOffset);
+
+            // the blocks, in the order they were written
+            List<Block> blocks = new ArrayList<Block>();
+            int records = 0;
+            int threadCount = 0;
+            for(int offset = AccessTraceWriter.HEADER_SIZE;offset<dictionaryOffset;) {
+                Block block = new Block(mapped.getInt(offset),offset + AccessTraceWriter.BLOCK_HEADER_SIZE,mapped.getInt(offset + 4));
+                blocks.add(block);
+                records += block.count;
+                threadCount = Math.max(threadCount,block.threadId + 1);
+                offset = block.start + (block.count * AccessTraceWriter.RECORD_SIZE);
+            }
+
+            return merge(mapped,blocks,records,classNames,threadCount);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static String[] readDictionary(ByteBuffer mapped, int offset) {
+        ByteBuffer dictionary = mapped.duplicate();
+        dictionary.position(offset);
+        String[] classNames = new String[dictionary.getInt()];
+        for(int i=0;i<classNames.length;i++) {
+            int id = dictionary.getInt();
+            int length = dictionary.getShort() & 0xFFFF;
+            byte[] utf = new byte[length];
+            dictionary.get(utf);
+            classNames[id] = modifiedUtf8(utf);
+        }
+        return classNames;
+    }
+
+    /**
+     * A thread's blocks follow each other in time, so one cursor per thread, over its blocks in turn,
+     * is merged by the time of each cursor's next record
+     */
+    private static AccessTrace merge(ByteBuffer mapped, List<Block> blocks, int records, String[] classNames, int threadCount) {
+        List<List<Block>> threadBlocks = new ArrayList<List<Block>>(threadCount);
+        for(int i=0;i<threadCount;i++) threadBlocks.add(new ArrayList<Block>());
+        for(Block block : blocks) threadBlocks.get(block.threadId).add(block);
+
+        PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(Math.max(1,threadCount));
+        for(List<Block> thread : threadBlocks) {
+            Cursor cursor = new Cursor(mapped,thread);
+            if(cursor.hasNext()) cursors.add(cursor);
+        }
+
+        int[] classIds = new int[records];
+        int[] threadIds = new int[records];
+        long[] nanoTimes = new long[records];
+        int i = 0;
+        while(!cursors.isEmpty()) {
+            Cursor cursor = cursors.poll();
+            classIds[i] = cursor.classId();
+            threadIds[i] = cursor.threadId();
+            nanoTimes[i] = cursor.nanoTime;
+            i++;
+            cursor.advance();
+            if(cursor.hasNext()) cursors.add(cursor);
+        }
+
+        log.debug("Read {} accesses of {} classes, from {} threads",records,classNames.length,threadCount);
+        return new AccessTrace(classNames,classIds,threadIds,nanoTimes,threadCount);
+    }
+
+    public int size() {
+        return classIds.length;
+    }
+
+    public int classCount() {
+        return classNames.length;
+    }
+
+    public int threadCount() {
+        return threadCount;
+    }
+
+    public String className(int classId) {
+        return classNames[classId];
+    }
+
+    public int classId(int access) {
+        return classIds[access];
+    }
+
+    /**
+     * @return a copy of the class id of every access, in time order, i.e. for the PolicySimulator
+     */
+    public int[] classIds() {
+        return classIds.clone();
+    }
+
+    public int threadId(int access) {
+        return threadIds[access];
+    }
+
+    public long nanoTime(int access) {
+        return nanoTimes[access];
+    }
+
+    /**
+     * @return the nanoseconds from the first access to the given access
+     */
+    public long offsetNanos(int access) {
+        return nanoTimes[access] - nanoTimes[0];
+    }
+
+    /**
+     * @return the traced classes, indexed by class id; null for a class that the loader cannot find
+     */
+    public Class[] resolveClasses(ClassLoader loader) {
+        Class[] classes = new Class[classNames.length];
+        int missing = 0;
+        for(int i=0;i<classNames.length;i++) {
+            try {
+                classes[i] = Class.forName(classNames[i],false,loader);
+            } catch (ClassNotFoundException e) {
+                missing++;
+            } catch (LinkageError e) {
+                missing++;
+            }
+        }
+        if(missing>0) log.warn("{} of the {} traced classes could not be loaded, their accesses are skipped",missing,classNames.length);
+        return classes;
+    }
+
+    private static String modifiedUtf8(byte[] utf) {
+        char[] chars = new char[utf.length];
+        int count = 0;
+        for(int i=0;i<utf.length;) {
+            int b = utf[i++] & 0xFF;
+            if(b<0x80) {
+                chars[count++] = (char) b;
+            } else if((b & 0xE0)==0xC0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (utf[i++] & 0x3F));
+            } else {
+                int b2 = utf[i++] & 0x3F;
+                int b3 = utf[i++] & 0x3F;
+                chars[count++] = (char) (((b & 0x0F) << 12) | (b2 << 6) | b3);
+            }
+        }
+        return new String(chars,0,count);
+    }
+
+    private static final class Block {
+        final int threadId;
+        final int start;
+        final int count;
+
+        Block(int threadId, int start, int count) {
+            this.threadId = threadId;
+            this.start = start;
+            this.count = count;
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        private final ByteBuffer mapped;
+        private final List<Block> blocks;
+        private int block;
+        private int record;
+        long nanoTime;
+
+        Cursor(ByteBuffer mapped, List<Block> blocks) {
+            this.mapped = mapped;
+            this.blocks = blocks;
+            skipEmptyBlocks();
+            if(hasNext()) nanoTime = mapped.getLong(offset() + 4);
+        }
+
+        boolean hasNext() {
+            return block<blocks.size();
+        }
+
+        int classId() {
+            return mapped.getInt(offset());
+        }
+
+        int threadId() {
+            return blocks.get(block).threadId;
+        }
+
+        void advance() {
+            record++;
+            skipEmptyBlocks();
+            if(hasNext()) nanoTime = mapped.getLong(offset() + 4);
+        }
+
+        private void skipEmptyBlocks() {
+            while(block<blocks.size() && record==blocks.get(block).count) {
+                block++;
+                record = 0;
+            }
+        }
+
+        private int offset() {
+            return blocks.get(block).start + (record * AccessTraceWriter.RECORD_SIZE);
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            long difference = nanoTime - other.nanoTime;
+            return difference<0 ? -1 : (difference>0 ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.greencheek.annotations.trace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes a trace of class accesses to a file, that AccessTrace reads back.
+ *
+ * Each thread records into its own buffer, that is only written to the file, as a block, when it
+ * is full; so the threads only contend on the file once every RECORDS_PER_BLOCK accesses.  The
+ * buffers of threads that have finished are written and dropped when the next thread starts
+ * recording, so a pool that replaces its threads does not accumulate them.  The class names are
+ * written once, as a dictionary at the end of the file, when the writer is closed.
+ *
+ * The file is laid out as:
+ * <pre>
+ *   header:     magic, version
+ *   blocks:     thread id, record count, record count * (class id, nanotime)
+ *   dictionary: class count, class count * (class id, class name)
+ *   trailer:    dictionary offset, magic
+ * </pre>
+ *
+ * Records within a block are in time order; blocks from different threads interleave.
+ */
+public class AccessTraceWriter {
+
+    static final int MAGIC = 0x41545243;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int BLOCK_HEADER_SIZE = 8;
+    static final int RECORD_SIZE = 12;
+    static final int TRAILER_SIZE = 12;
+
+    static final int RECORDS_PER_BLOCK = 4096;
+
+    // the class id given once the dictionary has been written
+    private static final int NO_CLASS_ID = -1;
+
+    private final FileChannel channel;
+
+    private final ClassValue<Integer> classIds = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            synchronized (classNames) {
+                if(dictionaryWritten) return NO_CLASS_ID;
+                classNames.add(type.getName());
+                return classNames.size() - 1;
+            }
+        }
+    };
+    // guarded by itself; indexed by class id
+    private final List<String> classNames = new ArrayList<String>();
+    // guarded by classNames
+    private boolean dictionaryWritten;
+
+    private final AtomicInteger nextThreadId = new AtomicInteger();
+    // guarded by itself; the buffer of every thread that is recording, so they can be flushed on close
+    private final List<ThreadBuffer> buffers = new ArrayList<ThreadBuffer>();
+    private final ThreadLocal<ThreadBuffer> threadBuffer = new ThreadLocal<ThreadBuffer>() {
+        @Override
+        protected ThreadBuffer initialValue() {
+            ThreadBuffer buffer = new ThreadBuffer(nextThreadId.getAndIncrement(),Thread.currentThread());
+            synchronized (buffers) {
+                removeFinishedThreads();
+                buffers.add(buffer);
+            }
+            return buffer;
+        }
+    };
+
+    private volatile boolean closed;
+
+    public AccessTraceWriter(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(),StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        write(header);
+    }
+
+    /**
+     * Records an access of the class by the calling thread
+     */
+    public void record(Class clazz) {
+        if(closed) return;
+        int classId = classIds.get(clazz);
+        if(classId==NO_CLASS_ID) return;
+        threadBuffer.get().record(classId,System.nanoTime());
+    }
+
+    // guarded by buffers
+    private void removeFinishedThreads() {
+        Iterator<ThreadBuffer> it = buffers.iterator();
+        while(it.hasNext()) {
+            ThreadBuffer buffer = it.next();
+            Thread owner = buffer.owner.get();
+            if(owner==null || !owner.isAlive()) {
+                buffer.flush();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Flushes every thread's buffer, and writes the dictionary.  Accesses recorded after this are ignored.
+     */
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        // once flushed, a buffer takes no more records
+        synchronized (buffers) {
+            for(ThreadBuffer buffer : buffers) {
+                buffer.flush();
+            }
+            buffers.clear();
+        }
+
+        synchronized (channel) {
+            long dictionaryOffset = channel.position();
+            ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+            DataOutputStream dictionary = new DataOutputStream(dictionaryBytes);
+            // no class ids are given out after this, so none are missing from the dictionary
+            synchronized (classNames) {
+                dictionaryWritten = true;
+                dictionary.writeInt(classNames.size());
+                for(int i=0;i<classNames.size();i++) {
+                    dictionary.writeInt(i);
+                    dictionary.writeUTF(classNames.get(i));
+                }
+            }
+            dictionary.writeLong(dictionaryOffset);
+            dictionary.writeInt(MAGIC);
+            dictionary.flush();
+            write(ByteBuffer.wrap(dictionaryBytes.toByteArray()));
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        synchronized (channel) {
+            while(bytes.hasRemaining()) channel.write(bytes);
+        }
+    }
+
+    /**
+     * A thread's block of records.  Only its own thread records into it; the lock is
+     * uncontended, other than when the writer is closed or the thread has finished.
+     */
+    private final class ThreadBuffer {
+        private final int threadId;
+        final WeakReference<Thread> owner;
+        private final ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + (RECORDS_PER_BLOCK * RECORD_SIZE));
+        private int count;
+
+        ThreadBuffer(int threadId, Thread owner) {
+            this.threadId = threadId;
+            this.owner = new WeakReference<Thread>(owner);
+            block.position(BLOCK_HEADER_SIZE);
+        }
+
+        synchronized void record(int classId, long nanoTime) {
+            // close() flushes the buffer holding this lock, after which the record would be lost
+            if(closed) return;
+            block.putInt(classId).putLong(nanoTime);
+            if(++count==RECORDS_PER_BLOCK) {
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            if(count==0) return;
+            block.putInt(0,threadId).putInt(4,count);
+            block.flip();
+            try {
+                write(block);
+            } catch (IOException e) {
+                // a thread that records as the writer is closed may find the file already closed
+                if(!closed) throw new IllegalStateException("Unable to write access trace",e);
+            } finally {
+                block.clear();
+                block.position(BLOCK_HEADER_SIZE);
+                count = 0;
+            }
+        }
+    }
+}
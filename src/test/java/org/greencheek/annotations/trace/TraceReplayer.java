@@ -0,0 +1,185 @@
+package org.greencheek.annotations.trace;
+
+import org.greencheek.annotations.benchmark.ReaderType;
+import org.greencheek.annotations.service.AnnotationReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays an AccessTrace through an AnnotationReader, with a given number of threads, either at
+ * the speed the accesses were recorded at, or as fast as the threads can go.
+ *
+ * The accesses of each recorded thread are replayed, in order, by the same replay thread
+ * (recorded thread id mod threads); so the per thread access patterns of the trace are kept.
+ *
+ * <pre>
+ *   TraceReplayer trace-file [reader-type] [threads] [ORIGINAL|MAXIMUM] [maximum-size]
+ * </pre>
+ */
+public class TraceReplayer {
+
+    private static Logger log = LoggerFactory.getLogger(TraceReplayer.class);
+
+    // when further ahead of the trace than this, park rather than spin
+    private static final long PARK_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public enum Speed {
+        ORIGINAL,
+        MAXIMUM
+    }
+
+    private final AccessTrace trace;
+    private final Class[] classes;
+
+    // written by the replay threads, so the reads are not eliminated
+    private volatile int sink;
+
+    public TraceReplayer(AccessTrace trace, ClassLoader loader) {
+        this.trace = trace;
+        this.classes = trace.resolveClasses(loader);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length<1) {
+            System.err.println("Usage: TraceReplayer trace-file [reader-type] [threads] [ORIGINAL|MAXIMUM] [maximum-size]");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        ReaderType readerType = args.length>1 ? ReaderType.valueOf(args[1]) : ReaderType.CACHE_BUILDER;
+        int threads = args.length>2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Speed speed = args.length>3 ? Speed.valueOf(args[3]) : Speed.MAXIMUM;
+        int maximumSize = args.length>4 ? Integer.parseInt(args[4]) : 1000;
+
+        AccessTrace trace = AccessTrace.read(file);
+        log.info("Replaying {} accesses of {} classes, recorded by {} threads",trace.size(),trace.classCount(),trace.threadCount());
+
+        TraceReplayer replayer = new TraceReplayer(trace,TraceReplayer.class.getClassLoader());
+        AnnotationReader reader = readerType.create(maximumSize);
+        try {
+            Result result = replayer.replay(reader,threads,speed);
+            log.info("{} with {} thread(s) at {} speed: {}",readerType,threads,speed,result);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public Result replay(final AnnotationReader reader, int threads, final Speed speed) throws InterruptedException {
+        if(threads<1) throw new IllegalArgumentException("threads must be greater than 0");
+
+        final List<int[]> partitions = partition(threads);
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(threads);
+        final long[] startNanos = new long[1];
+
+        for(int i=0;i<threads;i++) {
+            final int[] accesses = partitions.get(i);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ready.countDown();
+                        start.await();
+                        replay(reader,accesses,speed,startNanos[0]);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            },"trace-replay-" + i);
+            thread.start();
+        }
+
+        ready.await();
+        startNanos[0] = System.nanoTime();
+        start.countDown();
+        finished.await();
+        long elapsed = System.nanoTime() - startNanos[0];
+
+        int replayed = 0;
+        for(int[] accesses : partitions) replayed += accesses.length;
+        return new Result(replayed,trace.size() - replayed,elapsed);
+    }
+
+    private void replay(AnnotationReader reader, int[] accesses, Speed speed, long startNanos) {
+        int consumed = 0;
+        for(int access : accesses) {
+            if(speed==Speed.ORIGINAL) waitUntil(startNanos + trace.offsetNanos(access));
+            consumed += reader.getAnnotations(classes[trace.classId(access)]).length;
+        }
+        sink = consumed;
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while((remaining = nanoTime - System.nanoTime()) > 0) {
+            if(remaining>PARK_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - PARK_THRESHOLD_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * @return for each replay thread, the accesses it replays, skipping those of classes that could not be loaded
+     */
+    private List<int[]> partition(int threads) {
+        int[] counts = new int[threads];
+        for(int i=0;i<trace.size();i++) {
+            if(classes[trace.classId(i)]!=null) counts[trace.threadId(i) % threads]++;
+        }
+        List<int[]> partitions = new ArrayList<int[]>(threads);
+        for(int i=0;i<threads;i++) partitions.add(new int[counts[i]]);
+
+        int[] positions = new int[threads];
+        for(int i=0;i<trace.size();i++) {
+            if(classes[trace.classId(i)]==null) continue;
+            int thread = trace.threadId(i) % threads;
+            partitions.get(thread)[positions[thread]++] = i;
+        }
+        return partitions;
+    }
+
+    public static final class Result {
+        private final int replayed;
+        private final int skipped;
+        private final long elapsedNanos;
+
+        Result(int replayed, int skipped, long elapsedNanos) {
+            this.replayed = replayed;
+            this.skipped = skipped;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getReplayed() {
+            return replayed;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getOperationsPerSecond() {
+            return elapsedNanos==0 ? 0 : replayed / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d accesses (%d skipped) in %d ms, %.0f ops/s",
+                    replayed,skipped,TimeUnit.NANOSECONDS.toMillis(elapsedNanos),getOperationsPerSecond());
+        }
+    }
+}
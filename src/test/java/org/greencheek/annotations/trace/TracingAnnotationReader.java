@@ -0,0 +1,53 @@
+package org.greencheek.annotations.trace;
+
+import org.greencheek.annotations.service.AnnotationReader;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+
+/**
+ * Decorates an AnnotationReader, recording the class of every read to an AccessTraceWriter,
+ * so that the reads can be replayed later, against other readers, with TraceReplayer.
+ */
+public class TracingAnnotationReader implements AnnotationReader {
+
+    private final AnnotationReader delegate;
+    private final AccessTraceWriter trace;
+
+    public TracingAnnotationReader(AnnotationReader delegate, AccessTraceWriter trace) {
+        this.delegate = delegate;
+        this.trace = trace;
+    }
+
+    @Override
+    public Annotation[] getAnnotations(Class clazz) {
+        trace.record(clazz);
+        return delegate.getAnnotations(clazz);
+    }
+
+    @Override
+    public <A extends Annotation> A getAnnotation(Class clazz, Class<A> annotationType) {
+        trace.record(clazz);
+        return delegate.getAnnotation(clazz,annotationType);
+    }
+
+    @Override
+    public boolean isAnnotationPresent(Class clazz, Class<? extends Annotation> annotationType) {
+        trace.record(clazz);
+        return delegate.isAnnotationPresent(clazz,annotationType);
+    }
+
+    /**
+     * Completes the trace file, and closes the delegate
+     */
+    @Override
+    public void close() {
+        try {
+            trace.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to complete access trace",e);
+        } finally {
+            delegate.close();
+        }
+    }
+}
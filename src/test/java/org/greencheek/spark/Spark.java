@@ -72,6 +72,21 @@ public class Spark {
     }
 
 
+    /**
+     * Appends the ticks of count numbers, from the given index of a ring of numbers, to the builder; scaled
+     * between the given min and max.  Allocates nothing, for graphs that are redrawn, i.e. every second.
+     */
+    public static StringBuilder append(StringBuilder out, int[] ring, int from, int count, int min, int max) {
+        long range = (long) max - min;
+        for(int i=0;i<count;i++) {
+            int number = ring[(from + i) % ring.length];
+            int tick = range<=0 ? 0 : (int) ((((long) number - min) * NUMBER_OF_TICKS) / range);
+            out.append(TICKS[Math.max(0,Math.min(NUMBER_OF_TICKS,tick))]);
+        }
+        return out;
+    }
+
+
     public static class SparkResult {
         private final int min;
         private final int max;
@@ -28,9 +28,6 @@ package org.greencheek.spark;
 
  */
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * User: dominictootell
  * Date: 02/03/2013
@@ -127,53 +124,25 @@ public class Spark2 {
         }
 
         public String[] graphToStringArray(char histoChar) {
-            List<char[]> graphAsChars = new ArrayList<char[]>(graph.length);
             int maxHeight = 0;
             for(short height : graph) {
-                char[] bar = new char[height];
-                for(int i=0;i<height;i++) {
-                    bar[i] = histoChar;
-                }
-                graphAsChars.add(bar);
                 if(height>maxHeight) maxHeight = height;
             }
 
-            return graphToStringArray(graphAsChars,maxHeight);
-        }
-
-
-        private String[] graphToStringArray(List<char[]> graphAsCharArray, int maxHieght) {
-            int lengthOfGraph = graphAsCharArray.size();
-            List<StringBuilder> strings = new ArrayList<StringBuilder>(maxHieght);
-            for(int i=0;i<maxHieght;i++) {
-                strings.add(new StringBuilder(String.format("%1$" + lengthOfGraph + "s", "")));
-            }
-
-            int col = 0;
-            for(char[] column: graphAsCharArray) {
-                plotColumn(col,column,strings);
-                col++;
-            }
-
-            String[] items = new String[maxHieght];
-            int i=0;
-            for(int reverse=maxHieght-1;reverse>=0;reverse--) {
-                items[reverse] = strings.get(i).toString();
-                i++;
+            // the top row first
+            String[] items = new String[maxHeight];
+            char[] row = new char[graph.length];
+            for(int i=0;i<maxHeight;i++) {
+                int level = maxHeight - i;
+                for(int column=0;column<graph.length;column++) {
+                    row[column] = graph[column]>=level ? histoChar : ' ';
+                }
+                items[i] = new String(row);
             }
 
             return items;
         }
 
-        private void plotColumn(int column,char[] columnChars,List<StringBuilder> strings) {
-            int i =0;
-            for(char c : columnChars) {
-                StringBuilder row = strings.get(i);
-                row.setCharAt(column,c);
-                i++;
-            }
-        }
-
 
         public String toString() {
             return graphToString();
@@ -0,0 +1,192 @@
+package org.greencheek.spark;
+
+import java.util.Arrays;
+
+/**
+ * A sparkline of any number of samples, added one at a time, in no more than a given width of columns.
+ *
+ * Each column keeps the minimum and maximum of its run of samples.  When all the columns are full, pairs
+ * of neighbouring columns are merged, and each column then takes twice the samples; so the samples are
+ * never held, a spike is never averaged away, and the graph is between width/2 and width columns wide.
+ *
+ * The graph is drawn with Spark2's heights; a column is MARKER up to the height of its minimum, and
+ * RANGE_MARKER from there to the height of its maximum.  The vertical axis labels each increment'th
+ * column with its maximum, as IterativeVerticalAxisCreator does.  Adding a sample allocates nothing, and
+ * rendering allocates only the rows.
+ */
+public class StreamingSpark {
+
+    public static char MARKER = Spark2.MARKER;
+    public static char RANGE_MARKER = ':';
+    public static int HEIGHT = Spark2.TICKS.length;
+
+    private final int width;
+    private final int[] minimums;
+    private final int[] maximums;
+
+    private int columns;
+    private long samplesPerColumn = 1;
+    private long samplesInLastColumn;
+    private long count;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    public StreamingSpark(int width) {
+        if(width<2) throw new IllegalArgumentException("width must be greater than 1");
+        this.width = width;
+        this.minimums = new int[width];
+        this.maximums = new int[width];
+    }
+
+    public static StreamingSpark graph(int[] samples, int width) {
+        StreamingSpark spark = new StreamingSpark(width);
+        for(int sample : samples) spark.add(sample);
+        return spark;
+    }
+
+    public void add(int sample) {
+        if(columns==0 || samplesInLastColumn==samplesPerColumn) {
+            if(columns==width) merge();
+            if(samplesInLastColumn==samplesPerColumn || columns==0) {
+                minimums[columns] = sample;
+                maximums[columns] = sample;
+                columns++;
+                samplesInLastColumn = 0;
+            }
+        }
+        int last = columns - 1;
+        if(sample<minimums[last]) minimums[last] = sample;
+        if(sample>maximums[last]) maximums[last] = sample;
+        samplesInLastColumn++;
+
+        count++;
+        if(sample<min) min = sample;
+        if(sample>max) max = sample;
+    }
+
+    /**
+     * Halves the columns, each taking the samples of the two it replaces
+     */
+    private void merge() {
+        int merged = (columns + 1) / 2;
+        for(int i=0;i<merged;i++) {
+            int a = 2 * i;
+            int b = a + 1;
+            if(b<columns) {
+                minimums[i] = Math.min(minimums[a],minimums[b]);
+                maximums[i] = Math.max(maximums[a],maximums[b]);
+            } else {
+                minimums[i] = minimums[a];
+                maximums[i] = maximums[a];
+            }
+        }
+        // the last merged column is two full columns, or the last column on its own
+        if(columns % 2==0) samplesInLastColumn += samplesPerColumn;
+        columns = merged;
+        samplesPerColumn *= 2;
+    }
+
+    public int getMin() {
+        return count==0 ? 0 : min;
+    }
+
+    public int getMax() {
+        return count==0 ? 0 : max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the samples in each column, but the last
+     */
+    public long getSamplesPerColumn() {
+        return samplesPerColumn;
+    }
+
+    /**
+     * @return the rows of the graph, the top first
+     */
+    public String[] graphToStringArray() {
+        char[][] rows = new char[HEIGHT][columns];
+        for(int column=0;column<columns;column++) {
+            int low = height(minimums[column]);
+            int high = height(maximums[column]);
+            for(int row=0;row<HEIGHT;row++) {
+                // row 0 is the top
+                int level = HEIGHT - row;
+                rows[row][column] = level<=low ? MARKER : (level<=high ? RANGE_MARKER : ' ');
+            }
+        }
+        return toStrings(rows);
+    }
+
+    /**
+     * @return the rows of the vertical axis, each increment'th column labelled with its maximum, read downwards
+     */
+    public String[] axisToStringArray(int increment) {
+        if(increment<1) throw new IllegalArgumentException("increment must be greater than 0");
+        int digits = 0;
+        for(int column=increment-1;column<columns;column+=increment) {
+            digits = Math.max(digits,digits(maximums[column]));
+        }
+
+        char[][] rows = new char[digits][columns];
+        for(char[] row : rows) Arrays.fill(row,' ');
+        for(int column=increment-1;column<columns;column+=increment) {
+            int value = maximums[column];
+            int length = digits(value);
+            long remaining = Math.abs((long) value);
+            for(int row=length-1;row>=0;row--) {
+                if(row==0 && value<0) {
+                    rows[row][column] = '-';
+                } else {
+                    rows[row][column] = (char) ('0' + (remaining % 10));
+                    remaining /= 10;
+                }
+            }
+        }
+        return toStrings(rows);
+    }
+
+    public String graphToString() {
+        StringBuilder graph = new StringBuilder((columns + 1) * HEIGHT);
+        String lineSep = System.getProperty("line.separator");
+        for(String row : graphToStringArray()) {
+            if(graph.length()>0) graph.append(lineSep);
+            graph.append(row);
+        }
+        return graph.toString();
+    }
+
+    /**
+     * The height of a value, as Spark2 draws it: from 1 for the minimum to HEIGHT for the maximum
+     */
+    private int height(int value) {
+        long range = (long) max - min;
+        if(range==0) return 1;
+        return 1 + (int) ((((long) value - min) * (HEIGHT - 1)) / range);
+    }
+
+    private static int digits(int value) {
+        int digits = value<0 ? 2 : 1;
+        for(long remaining = Math.abs((long) value) / 10;remaining>0;remaining /= 10) digits++;
+        return digits;
+    }
+
+    private static String[] toStrings(char[][] rows) {
+        String[] strings = new String[rows.length];
+        for(int i=0;i<rows.length;i++) strings[i] = new String(rows[i]);
+        return strings;
+    }
+
+    @Override
+    public String toString() {
+        return graphToString();
+    }
+}